@@ -0,0 +1,259 @@
+package com.fsolsh.aws.benchmark;
+
+import com.fsolsh.aws.config.AWSProperties;
+import com.fsolsh.aws.support.NamedThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * in-process http stand-in that speaks just enough s3, ses and sns for the benchmarks, request bodies are
+ * drained and digested but never stored
+ * <ul>
+ * <li>s3, path-style : PutObject, the multipart upload calls, DeleteObjects, CreateBucket and HeadBucket</li>
+ * <li>ses, query : SendEmail, SendRawEmail, SendBulkTemplatedEmail and GetSendQuota</li>
+ * <li>sns, query : Publish</li>
+ * </ul>
+ */
+public class LocalAwsEndpoint implements AutoCloseable {
+
+    private static final String SES_NAMESPACE = "http://ses.amazonaws.com/doc/2010-12-01/";
+    private static final String SNS_NAMESPACE = "http://sns.amazonaws.com/doc/2010-03-31/";
+    private static final String SNS_VERSION = "2010-03-31";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong ids = new AtomicLong();
+
+    public LocalAwsEndpoint() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(8, Runtime.getRuntime().availableProcessors() * 2), new NamedThreadFactory("aws-stand-in"));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * properties pointing all three services at this endpoint with dummy credentials
+     */
+    public AWSProperties properties() {
+        AWSProperties properties = new AWSProperties();
+        properties.setS3_region("us-east-1");
+        properties.setS3_access_key("benchmark");
+        properties.setS3_secret_key("benchmark");
+        properties.setS3_endpoint(getUrl());
+        properties.setSes_region("us-east-1");
+        properties.setSes_access_key("benchmark");
+        properties.setSes_secret_key("benchmark");
+        properties.setSes_endpoint(getUrl());
+        properties.setSns_region("us-east-1");
+        properties.setSns_access_key("benchmark");
+        properties.setSns_secret_key("benchmark");
+        properties.setSns_endpoint(getUrl());
+        return properties;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery() != null ? exchange.getRequestURI().getRawQuery() : "";
+            if ("/".equals(path) && "POST".equals(exchange.getRequestMethod())) {
+                handleQueryAction(exchange);
+            } else {
+                handleS3(exchange, path, query);
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 500, "<Error><Code>InternalError</Code><Message>" + e + "</Message></Error>");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleS3(HttpExchange exchange, String path, String query) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] bucketAndKey = path.substring(1).split("/", 2);
+        String bucket = bucketAndKey[0];
+        String key = bucketAndKey.length > 1 ? bucketAndKey[1] : "";
+
+        if ("PUT".equals(method) && !key.isEmpty()) {
+            // PutObject and UploadPart, the etag is the md5 of the payload which the sdk checks
+            exchange.getResponseHeaders().add("ETag", "\"" + md5Hex(payload(exchange)) + "\"");
+            send(exchange, 200, null);
+        } else if ("POST".equals(method) && hasParameter(query, "uploads")) {
+            send(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + key
+                    + "</Key><UploadId>upload-" + ids.incrementAndGet() + "</UploadId></InitiateMultipartUploadResult>");
+        } else if ("POST".equals(method) && hasParameter(query, "uploadId")) {
+            drain(exchange.getRequestBody());
+            send(exchange, 200, "<CompleteMultipartUploadResult><Bucket>" + bucket + "</Bucket><Key>" + key
+                    + "</Key><ETag>\"" + ids.incrementAndGet() + "-1\"</ETag></CompleteMultipartUploadResult>");
+        } else if ("POST".equals(method) && hasParameter(query, "delete")) {
+            // quiet mode only reports failures, and nothing fails here
+            drain(exchange.getRequestBody());
+            send(exchange, 200, "<DeleteResult></DeleteResult>");
+        } else if ("DELETE".equals(method) || "PUT".equals(method) || "HEAD".equals(method)) {
+            // AbortMultipartUpload, CreateBucket and HeadBucket
+            drain(exchange.getRequestBody());
+            send(exchange, "DELETE".equals(method) ? 204 : 200, null);
+        } else {
+            send(exchange, 501, "<Error><Code>NotImplemented</Code><Message>" + method + " " + path + "</Message></Error>");
+        }
+    }
+
+    private void handleQueryAction(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = formParameters(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8));
+        String action = parameters.getOrDefault("Action", "");
+        String namespace = SNS_VERSION.equals(parameters.get("Version")) ? SNS_NAMESPACE : SES_NAMESPACE;
+        String result;
+        switch (action) {
+            case "Publish":
+            case "SendEmail":
+            case "SendRawEmail":
+                result = "<MessageId>" + messageId() + "</MessageId>";
+                break;
+            case "SendBulkTemplatedEmail":
+                StringBuilder statuses = new StringBuilder("<Status>");
+                for (int i = 1; parameters.containsKey("Destinations.member." + i + ".Destination.ToAddresses.member.1"); i++) {
+                    statuses.append("<member><Status>Success</Status><MessageId>").append(messageId()).append("</MessageId></member>");
+                }
+                result = statuses.append("</Status>").toString();
+                break;
+            case "GetSendQuota":
+                result = "<Max24HourSend>1000000.0</Max24HourSend><MaxSendRate>100000.0</MaxSendRate><SentLast24Hours>0.0</SentLast24Hours>";
+                break;
+            default:
+                send(exchange, 400, "<ErrorResponse xmlns=\"" + namespace + "\"><Error><Type>Sender</Type><Code>InvalidAction</Code><Message>"
+                        + action + "</Message></Error><RequestId>" + messageId() + "</RequestId></ErrorResponse>");
+                return;
+        }
+        send(exchange, 200, "<" + action + "Response xmlns=\"" + namespace + "\"><" + action + "Result>" + result + "</" + action
+                + "Result><ResponseMetadata><RequestId>" + messageId() + "</RequestId></ResponseMetadata></" + action + "Response>");
+    }
+
+    /**
+     * the request content, with the aws-chunked framing of a signed streaming upload removed
+     */
+    private static byte[] payload(HttpExchange exchange) throws IOException {
+        String sha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        InputStream body = exchange.getRequestBody();
+        if (sha256 == null || !sha256.startsWith("STREAMING-")) {
+            return readAll(body);
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        while (true) {
+            String header = readLine(body);
+            int size = Integer.parseInt(header.split(";", 2)[0].trim(), 16);
+            if (size == 0) {
+                drain(body);
+                return content.toByteArray();
+            }
+            byte[] chunk = new byte[size];
+            for (int read = 0; read < size; ) {
+                int n = body.read(chunk, read, size - read);
+                if (n < 0) {
+                    throw new IOException("truncated aws-chunked body");
+                }
+                read += n;
+            }
+            content.write(chunk);
+            readLine(body);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c; (c = in.read()) >= 0 && c != '\n'; ) {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        for (int n; (n = in.read(buffer)) >= 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+    }
+
+    private static boolean hasParameter(String query, String name) {
+        for (String parameter : query.split("&")) {
+            if (parameter.equals(name) || parameter.startsWith(name + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, String> formParameters(String form) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static String md5Hex(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder(32);
+            for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String messageId() {
+        return "local-" + ids.incrementAndGet();
+    }
+
+    private static void send(HttpExchange exchange, int status, String xml) throws IOException {
+        if (xml == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,50 @@
+package com.fsolsh.aws.benchmark;
+
+import com.fsolsh.aws.AWS_S3;
+import com.fsolsh.aws.s3.S3DeleteResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bulk delete by number of keys, 1000 keys per DeleteObjects call with several calls in flight
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3DeleteBenchmark {
+
+    @Param({"1", "1000", "10000"})
+    private int keyCount;
+
+    private LocalAwsEndpoint endpoint;
+    private AWS_S3 aws_s3;
+    private List<String> keys;
+
+    @Setup
+    public void setUp() throws IOException {
+        endpoint = new LocalAwsEndpoint();
+        aws_s3 = new AWS_S3(endpoint.properties());
+        keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add("delete/object-" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        aws_s3.close();
+        endpoint.close();
+    }
+
+    @Benchmark
+    public S3DeleteResult deleteObjects() {
+        return aws_s3.deleteObjects("benchmark", keys);
+    }
+}
@@ -0,0 +1,59 @@
+package com.fsolsh.aws.benchmark;
+
+import com.fsolsh.aws.AWS_S3;
+import com.fsolsh.aws.config.AWSProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * presignGetObject with and without the url cache, distinct keys show the cost of a miss
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3PresignBenchmark {
+
+    @Param({"0", "10000"})
+    private int cacheSize;
+
+    private LocalAwsEndpoint endpoint;
+    private AWS_S3 aws_s3;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        endpoint = new LocalAwsEndpoint();
+        AWSProperties properties = endpoint.properties();
+        properties.setS3_presign_cache_size(cacheSize);
+        aws_s3 = new AWS_S3(properties);
+        keys = new String[100_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "presign/object-" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        aws_s3.close();
+        endpoint.close();
+    }
+
+    @Benchmark
+    public URL presignSameKey() {
+        return aws_s3.presignGetObject("benchmark", "presign/object");
+    }
+
+    @Benchmark
+    public URL presignDistinctKeys() {
+        String key = keys[next];
+        next = (next + 1) % keys.length;
+        return aws_s3.presignGetObject("benchmark", key);
+    }
+}
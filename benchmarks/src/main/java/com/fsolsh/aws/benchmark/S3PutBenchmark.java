@@ -0,0 +1,57 @@
+package com.fsolsh.aws.benchmark;
+
+import com.fsolsh.aws.AWS_S3;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * putObject by payload size, byte[] goes out as one PutObject, a ByteBuffer of at least one part
+ * goes through the parallel multipart uploader
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3PutBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    private int payloadSize;
+
+    private LocalAwsEndpoint endpoint;
+    private AWS_S3 aws_s3;
+    private byte[] payload;
+    private ByteBuffer payloadBuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        endpoint = new LocalAwsEndpoint();
+        aws_s3 = new AWS_S3(endpoint.properties());
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+        payloadBuffer = ByteBuffer.wrap(payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        aws_s3.close();
+        endpoint.close();
+    }
+
+    @Benchmark
+    public String putBytes() {
+        return aws_s3.putObject("benchmark", "put/bytes", Collections.emptyMap(), payload, ObjectCannedACL.PRIVATE, "application/octet-stream");
+    }
+
+    @Benchmark
+    public String putByteBuffer() {
+        return aws_s3.putObject("benchmark", "put/buffer", Collections.emptyMap(), payloadBuffer, ObjectCannedACL.PRIVATE, "application/octet-stream");
+    }
+}
@@ -0,0 +1,61 @@
+package com.fsolsh.aws.benchmark;
+
+import com.fsolsh.aws.AWS_SES;
+import com.fsolsh.aws.config.FileType;
+import com.fsolsh.aws.ses.MailAttachment;
+import com.fsolsh.aws.ses.SesRawMessageBuilder;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.core.SdkBytes;
+
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * raw mail by attachment size, assembly alone and the full SendRawEmail round trip
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SesRawMailBenchmark {
+
+    private static final String BODY = "<html><body><p>monthly report attached</p></body></html>";
+
+    @Param({"1024", "102400", "5242880"})
+    private int attachmentSize;
+
+    private LocalAwsEndpoint endpoint;
+    private AWS_SES aws_ses;
+    private List<MailAttachment> attachments;
+
+    @Setup
+    public void setUp() throws IOException {
+        endpoint = new LocalAwsEndpoint();
+        aws_ses = new AWS_SES(endpoint.properties());
+        byte[] content = new byte[attachmentSize];
+        ThreadLocalRandom.current().nextBytes(content);
+        attachments = Collections.singletonList(MailAttachment.of("report.pdf", FileType.PDF, content));
+    }
+
+    @TearDown
+    public void tearDown() {
+        aws_ses.close();
+        endpoint.close();
+    }
+
+    @Benchmark
+    public SdkBytes assemble() throws MessagingException, IOException {
+        return new SesRawMessageBuilder(BODY, true, attachments).build("sender@example.com", "recipient@example.com", "report");
+    }
+
+    @Benchmark
+    public boolean send() throws MessagingException, IOException {
+        return aws_ses.sendHtmlMailWithAttachments("sender@example.com", "recipient@example.com", "report", BODY, attachments);
+    }
+}
@@ -0,0 +1,44 @@
+package com.fsolsh.aws.benchmark;
+
+import com.fsolsh.aws.AWS_SNS;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * single sms publish, blocking and through the async client
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnsPublishBenchmark {
+
+    private LocalAwsEndpoint endpoint;
+    private AWS_SNS aws_sns;
+
+    @Setup
+    public void setUp() throws IOException {
+        endpoint = new LocalAwsEndpoint();
+        aws_sns = new AWS_SNS(endpoint.properties());
+    }
+
+    @TearDown
+    public void tearDown() {
+        aws_sns.close();
+        endpoint.close();
+    }
+
+    @Benchmark
+    public boolean publish() {
+        return aws_sns.sendTextSMS("your code is 123456", "+8615900770077");
+    }
+
+    @Benchmark
+    public String publishAsync() {
+        return aws_sns.sendTextSMSAsync("your code is 123456", "+8615900770077").join();
+    }
+}
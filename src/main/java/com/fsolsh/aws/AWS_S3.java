@@ -1,45 +1,139 @@
 package com.fsolsh.aws;
 
+import com.fsolsh.aws.config.AWSClientFactory;
 import com.fsolsh.aws.config.AWSProperties;
+import com.fsolsh.aws.metrics.AWSMetrics;
+import com.fsolsh.aws.s3.S3BulkCopier;
+import com.fsolsh.aws.s3.S3BulkDeleter;
+import com.fsolsh.aws.s3.S3ClientRegistry;
+import com.fsolsh.aws.s3.S3Compression;
+import com.fsolsh.aws.s3.S3CopyOptions;
+import com.fsolsh.aws.s3.S3CopyResult;
+import com.fsolsh.aws.s3.S3DedupIndex;
+import com.fsolsh.aws.s3.S3DedupUploader;
+import com.fsolsh.aws.s3.S3DeleteResult;
+import com.fsolsh.aws.s3.S3DirectorySync;
+import com.fsolsh.aws.s3.S3HedgedReader;
+import com.fsolsh.aws.s3.S3MultipartUploader;
+import com.fsolsh.aws.s3.S3ObjectCache;
+import com.fsolsh.aws.s3.S3ObjectLister;
+import com.fsolsh.aws.s3.S3PresignedUrlCache;
+import com.fsolsh.aws.s3.S3RangedDownloader;
+import com.fsolsh.aws.s3.S3RoutingAsyncClient;
+import com.fsolsh.aws.s3.S3RoutingClient;
+import com.fsolsh.aws.s3.S3ScanOptions;
+import com.fsolsh.aws.s3.S3SyncOptions;
+import com.fsolsh.aws.s3.S3SyncResult;
+import com.fsolsh.aws.support.ConnectionWarmUp;
+import com.fsolsh.aws.support.NamedThreadFactory;
 import lombok.extern.slf4j.Slf4j;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.AwsCredentials;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 import software.amazon.awssdk.services.s3.waiters.S3Waiter;
 import software.amazon.awssdk.utils.StringUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 /**
  * AWS_S3
  */
 @Slf4j
-public class AWS_S3 {
+public class AWS_S3 implements AutoCloseable {
     public static final long MAX_PRESIGN_DURATION_IN_SECONDS = 60 * 60 * 24 * 7;
     public static final long DEFAULT_PRESIGN_DURATION_IN_SECONDS = 60 * 5;
+    private static final String SERVICE = "s3";
 
-    private static Region region;
-    private static boolean isReady;
-    private AwsCredentialsProvider provider;
-    private String domain;
+    private boolean isReady;
+    private S3ClientRegistry clientRegistry;
+    private S3Client s3;
+    private S3AsyncClient s3Async;
+    private S3PresignedUrlCache presignedUrlCache;
+    private ExecutorService transferExecutor;
+    private S3MultipartUploader multipartUploader;
+    private S3RangedDownloader rangedDownloader;
+    private S3BulkDeleter bulkDeleter;
+    private S3BulkCopier bulkCopier;
+    private S3DirectorySync directorySync;
+    private S3ObjectLister objectLister;
+    private S3ObjectCache objectCache;
+    private S3HedgedReader hedgedReader;
+    private S3DedupIndex dedupIndex;
+    private S3DedupUploader dedupUploader;
+    private S3Compression compression;
+    private long compressionMinSize;
+    private List<String> warmupBuckets;
+    private int warmupConnections;
+    private AWSClientFactory clientFactory;
+    private boolean ownsClientFactory;
+    private AWSMetrics metrics;
 
     public AWS_S3(AWSProperties properties) {
+        this(properties, new AWSClientFactory(properties));
+        this.ownsClientFactory = true;
+    }
+
+    public AWS_S3(AWSProperties properties, AWSClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+        this.metrics = clientFactory.getMetrics();
         if (!StringUtils.isEmpty(properties.getS3_access_key()) && !StringUtils.isEmpty(properties.getS3_secret_key()) && !StringUtils.isEmpty(properties.getS3_region())) {
-            region = Region.of(properties.getSes_region());
-            this.domain = "https://s3." + region.id() + ".amazonaws.com";
-            AwsCredentials awsCredentials = AwsBasicCredentials.create(properties.getS3_access_key(), properties.getS3_secret_key());
-            this.provider = StaticCredentialsProvider.create(awsCredentials);
+            this.clientRegistry = new S3ClientRegistry(properties, clientFactory);
+            this.s3 = new S3RoutingClient(clientRegistry);
+            this.s3Async = new S3RoutingAsyncClient(clientRegistry);
+            this.presignedUrlCache = new S3PresignedUrlCache(properties.getS3_presign_cache_size(), properties.getS3_presign_cache_safety_margin());
+            this.transferExecutor = Executors.newFixedThreadPool(properties.getS3_multipart_concurrency(), new NamedThreadFactory("aws-s3-transfer"));
+            this.multipartUploader = new S3MultipartUploader(s3, transferExecutor, properties.getS3_multipart_part_size(), properties.getS3_multipart_concurrency(), properties.getS3_multipart_part_retries());
+            this.rangedDownloader = new S3RangedDownloader(s3, transferExecutor, properties.getS3_multipart_part_size(), properties.getS3_multipart_part_retries());
+            this.bulkDeleter = new S3BulkDeleter(s3, transferExecutor, properties.getS3_multipart_concurrency(), this::deleted);
+            this.objectLister = new S3ObjectLister(s3Async, properties.getS3_list_concurrency());
+            this.bulkCopier = new S3BulkCopier(s3, objectLister, bulkDeleter, transferExecutor, properties.getS3_copy_part_size(), properties.getS3_multipart_part_retries(), properties.getS3_copy_concurrency(), this::written);
+            this.compression = properties.getS3_compression() != null ? properties.getS3_compression() : S3Compression.NONE;
+            this.compressionMinSize = properties.getS3_compression_min_size();
+            this.warmupBuckets = new ArrayList<>(properties.getS3_warmup_buckets());
+            this.warmupConnections = properties.getWarmup_connections();
+            this.directorySync = new S3DirectorySync(s3, multipartUploader, bulkDeleter, properties.getS3_multipart_part_size(), properties.getS3_sync_concurrency(), this::written);
+            if (properties.isS3_dedup_enabled()) {
+                try {
+                    Path indexFile = StringUtils.isEmpty(properties.getS3_dedup_index_file()) ? null : Paths.get(properties.getS3_dedup_index_file());
+                    this.dedupIndex = new S3DedupIndex(properties.getS3_dedup_index_size(), indexFile);
+                } catch (IOException e) {
+                    log.error("aws-s3 dedup index initialization failed", e);
+                    throw new RuntimeException(" aws-s3 dedup index initialization failed", e);
+                }
+                this.dedupUploader = new S3DedupUploader(s3, multipartUploader, dedupIndex, properties.isS3_dedup_head_fallback());
+            }
+            this.hedgedReader = new S3HedgedReader(s3, properties.isS3_hedge_enabled(), properties.getS3_hedge_percentile(), properties.getS3_hedge_min_delay(),
+                    properties.getS3_hedge_concurrency());
+            if (properties.isS3_cache_enabled()) {
+                try {
+                    this.objectCache = new S3ObjectCache(hedgedReader, properties.getS3_cache_memory_size(), properties.getS3_cache_memory_max_object_size(),
+                            Paths.get(properties.getS3_cache_dir()), properties.getS3_cache_disk_size(), properties.getS3_cache_ttl());
+                } catch (IOException e) {
+                    log.error("aws-s3 object cache initialization failed", e);
+                    throw new RuntimeException(" aws-s3 object cache initialization failed", e);
+                }
+            }
             isReady = true;
         }
     }
@@ -54,30 +148,67 @@ public class AWS_S3 {
             throw new RuntimeException(" aws-s3 initialization failed");
         }
 
-        S3Client s3 = S3Client.builder()
-                .region(region)
-                .credentialsProvider(provider)
-                .build();
+        PutObjectRequest putOb = putObjectRequest(bucketName, objectKey, metadata, objectCannedACL, contentType);
 
-        try {
-            PutObjectRequest.Builder builder = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(objectKey)
-                    .acl(objectCannedACL)
-                    .metadata(metadata);
+        return metrics.record(SERVICE, "putObject", () -> uploaded(bucketName, objectKey, upload(putOb, bytesArray)));
+    }
 
-            PutObjectRequest putOb = contentType != null ?
-                    builder.contentType(contentType).build() :
-                    builder.build();
+    /**
+     * streaming putObject, the stream is read part by part and never held in memory as a whole, the caller closes it,
+     * a compressed stream carries no original-size metadata as its length is not known up front
+     */
+    public String putObject(String bucketName, String objectKey, Map<String, String> metadata, InputStream inputStream, ObjectCannedACL objectCannedACL, String contentType) throws IOException {
+        if (!isReady) {
+            log.error("putObject error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
 
-            if (s3.putObject(putOb, RequestBody.fromBytes(bytesArray)).sdkHttpResponse().isSuccessful()) {
-                return this.domain + "/" + bucketName + "/" + objectKey;
-            }
-        } finally {
-            if (s3 != null) s3.close();
+        PutObjectRequest putOb = putObjectRequest(bucketName, objectKey, metadata, objectCannedACL, contentType);
+        return metrics.record(SERVICE, "putObject", () -> uploaded(bucketName, objectKey, upload(putOb, inputStream, -1)));
+    }
+
+    public String putObject(String bucketName, String objectKey, Map<String, String> metadata, Path path, ObjectCannedACL objectCannedACL, String contentType) throws IOException {
+        if (!isReady) {
+            log.error("putObject error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+
+        PutObjectRequest putOb = putObjectRequest(bucketName, objectKey, metadata, objectCannedACL, contentType);
+        return metrics.record(SERVICE, "putObject", () -> uploaded(bucketName, objectKey, upload(putOb, path)));
+    }
+
+    /**
+     * uploads the remaining bytes of the buffer, the buffer position is not changed
+     */
+    public String putObject(String bucketName, String objectKey, Map<String, String> metadata, ByteBuffer byteBuffer, ObjectCannedACL objectCannedACL, String contentType) {
+        if (!isReady) {
+            log.error("putObject error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
         }
 
-        return null;
+        PutObjectRequest putOb = putObjectRequest(bucketName, objectKey, metadata, objectCannedACL, contentType);
+        return metrics.record(SERVICE, "putObject", () -> uploaded(bucketName, objectKey, upload(putOb, byteBuffer)));
+    }
+
+    /**
+     * non-blocking putObject, completes with the object url, or null when the upload was not successful
+     */
+    public CompletableFuture<String> putObjectAsync(String bucketName, String objectKey, Map<String, String> metadata, byte[] bytesArray, ObjectCannedACL objectCannedACL, String contentType) {
+        if (!isReady) {
+            log.error("putObjectAsync error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+
+        PutObjectRequest plain = putObjectRequest(bucketName, objectKey, metadata, objectCannedACL, contentType);
+        byte[] compressed = compressed(plain, ByteBuffer.wrap(bytesArray));
+        PutObjectRequest putOb = compressed != null ? encoded(plain, bytesArray.length) : plain;
+        byte[] body = compressed != null ? compressed : bytesArray;
+        return metrics.recordAsync(SERVICE, "putObjectAsync", () -> s3Async.putObject(putOb, AsyncRequestBody.fromBytes(body))
+                .thenApply(response -> uploaded(bucketName, objectKey, response.sdkHttpResponse().isSuccessful())));
+    }
+
+    public CompletableFuture<String> putObjectWithPublicReadAsync(String bucketName, String objectKey, Map<String, String> metadata, byte[] bytesArray) {
+        return putObjectAsync(bucketName, objectKey, metadata, bytesArray, ObjectCannedACL.PUBLIC_READ, null);
     }
 
     public String putObjectWithPublicRead(String bucketName, String objectKey, Map<String, String> metadata, byte[] bytesArray) {
@@ -86,18 +217,80 @@ public class AWS_S3 {
             throw new RuntimeException(" aws-s3 initialization failed");
         }
 
-        S3Client s3 = S3Client.builder().region(region).credentialsProvider(provider).build();
-        try {
-            PutObjectRequest putOb = PutObjectRequest.builder().bucket(bucketName).key(objectKey).metadata(metadata).acl(ObjectCannedACL.PUBLIC_READ).build();
-            if (s3.putObject(putOb, RequestBody.fromBytes(bytesArray)).sdkHttpResponse().isSuccessful()) {
-                return this.domain + "/" + bucketName + "/" + objectKey;
-            }
-        } finally {
-            if (s3 != null) {
-                s3.close();
+        PutObjectRequest putOb = PutObjectRequest.builder().bucket(bucketName).key(objectKey).metadata(metadata).acl(ObjectCannedACL.PUBLIC_READ).build();
+        return metrics.record(SERVICE, "putObjectWithPublicRead", () -> uploaded(bucketName, objectKey, upload(putOb, bytesArray)));
+    }
+
+    public String putObjectWithPublicRead(String bucketName, String objectKey, Map<String, String> metadata, InputStream inputStream) throws IOException {
+        return putObject(bucketName, objectKey, metadata, inputStream, ObjectCannedACL.PUBLIC_READ, null);
+    }
+
+    public String putObjectWithPublicRead(String bucketName, String objectKey, Map<String, String> metadata, Path path) throws IOException {
+        return putObject(bucketName, objectKey, metadata, path, ObjectCannedACL.PUBLIC_READ, null);
+    }
+
+    public String putObjectWithPublicRead(String bucketName, String objectKey, Map<String, String> metadata, ByteBuffer byteBuffer) {
+        return putObject(bucketName, objectKey, metadata, byteBuffer, ObjectCannedACL.PUBLIC_READ, null);
+    }
+
+    /**
+     * parallel download into a local file, ranges of s3_multipart_part_size are fetched concurrently
+     *
+     * @return the object size in bytes
+     */
+    public long getObject(String bucketName, String objectKey, Path target) throws IOException {
+        if (!isReady) {
+            log.error("getObject error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "getObject", () -> rangedDownloader.download(bucketName, objectKey, target));
+    }
+
+    /**
+     * single-stream download for small objects, the caller must close the stream to release the connection,
+     * hedged when s3_hedge_enabled is set
+     */
+    public ResponseInputStream<GetObjectResponse> getObject(String bucketName, String objectKey) {
+        if (!isReady) {
+            log.error("getObject error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "getObject", () -> hedgedReader.getObject(GetObjectRequest.builder().bucket(bucketName).key(objectKey).build()));
+    }
+
+    /**
+     * single-stream download that decodes objects stored with s3_compression, the caller must close the stream
+     */
+    public InputStream getObjectContent(String bucketName, String objectKey) throws IOException {
+        if (!isReady) {
+            log.error("getObjectContent error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "getObjectContent", () -> {
+            ResponseInputStream<GetObjectResponse> in = hedgedReader.getObject(GetObjectRequest.builder().bucket(bucketName).key(objectKey).build());
+            try {
+                return S3Compression.decode(in, in.response().contentEncoding());
+            } catch (IOException | RuntimeException e) {
+                in.abort();
+                throw e;
             }
+        });
+    }
+
+    /**
+     * read-through cached getObject for small, frequently read objects such as config blobs and templates,
+     * the view is read-only and stays valid after the entry is evicted
+     */
+    public ByteBuffer getCachedObject(String bucketName, String objectKey) throws IOException {
+        if (!isReady) {
+            log.error("getCachedObject error : aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        if (objectCache == null) {
+            log.error("getCachedObject error : s3_cache_enabled is off");
+            throw new IllegalStateException("s3_cache_enabled is off");
         }
-        return null;
+        return metrics.record(SERVICE, "getCachedObject", () -> objectCache.get(bucketName, objectKey));
     }
 
     public boolean deleteObjects(String bucketName, String objectName) {
@@ -106,17 +299,125 @@ public class AWS_S3 {
             log.error("deleteObjects error: aws-s3 initialization failed");
             throw new RuntimeException(" aws-s3 initialization failed");
         }
-        S3Client s3 = S3Client.builder().region(region).credentialsProvider(provider).build();
         ArrayList<ObjectIdentifier> toDelete = new ArrayList<>();
         toDelete.add(ObjectIdentifier.builder().key(objectName).build());
-        try {
-            DeleteObjectsRequest dor = DeleteObjectsRequest.builder().bucket(bucketName).delete(Delete.builder().objects(toDelete).build()).build();
-            return s3.deleteObjects(dor) != null;
-        } finally {
-            if (s3 != null) {
-                s3.close();
+        DeleteObjectsRequest dor = DeleteObjectsRequest.builder().bucket(bucketName).delete(Delete.builder().objects(toDelete).build()).build();
+        return metrics.record(SERVICE, "deleteObjects", () -> {
+            DeleteObjectsResponse response = s3.deleteObjects(dor);
+            if (response != null && response.errors().isEmpty()) {
+                deleted(bucketName, objectName);
             }
+            return response != null;
+        });
+    }
+
+    /**
+     * bulk delete, keys are sent in 1000-key batches with several batches in flight
+     */
+    public S3DeleteResult deleteObjects(String bucketName, Collection<String> objectKeys) {
+        return deleteObjects(bucketName, objectKeys.iterator());
+    }
+
+    public S3DeleteResult deleteObjects(String bucketName, Iterator<String> objectKeys) {
+        if (!isReady) {
+            log.error("deleteObjects error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "deleteObjects", () -> bulkDeleter.delete(bucketName, objectKeys));
+    }
+
+    /**
+     * delete every object under the prefix, keys are streamed from a paginated listing
+     */
+    public S3DeleteResult deleteObjectsByPrefix(String bucketName, String prefix) {
+        if (!isReady) {
+            log.error("deleteObjectsByPrefix error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        ListObjectsV2Request listRequest = ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).build();
+        return metrics.record(SERVICE, "deleteObjectsByPrefix", () -> {
+            Iterator<S3Object> objects = s3.listObjectsV2Paginator(listRequest).contents().iterator();
+            return bulkDeleter.delete(bucketName, new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return objects.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return objects.next().key();
+                }
+            });
+        });
+    }
+
+    /**
+     * lazy listing of every object under the prefix in key order, the next page is fetched while the current one is read,
+     * close the stream when it is not read to the end
+     */
+    public Stream<S3Object> listObjects(String bucketName, String prefix) {
+        if (!isReady) {
+            log.error("listObjects error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return objectLister.list(bucketName, prefix);
+    }
+
+    /**
+     * parallel listing of the prefix split by delimiter or key ranges, keys come out of order, memory stays bounded
+     * by a few pages per partition, close the stream when it is not read to the end
+     */
+    public Stream<S3Object> scanObjects(String bucketName, String prefix, S3ScanOptions options) {
+        if (!isReady) {
+            log.error("scanObjects error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
         }
+        return objectLister.scan(bucketName, prefix, options);
+    }
+
+    /**
+     * server-side copy of every object under the source prefix to the target prefix, see {@link S3BulkCopier}
+     */
+    public S3CopyResult copyObjects(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix) throws IOException {
+        return copyObjects(sourceBucket, sourcePrefix, targetBucket, targetPrefix, new S3CopyOptions());
+    }
+
+    public S3CopyResult copyObjects(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix, S3CopyOptions options) throws IOException {
+        if (!isReady) {
+            log.error("copyObjects error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "copyObjects", () -> bulkCopier.copy(sourceBucket, sourcePrefix, targetBucket, targetPrefix, options));
+    }
+
+    /**
+     * copy as copyObjects, then delete the sources that were copied
+     */
+    public S3CopyResult moveObjects(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix) throws IOException {
+        return moveObjects(sourceBucket, sourcePrefix, targetBucket, targetPrefix, new S3CopyOptions());
+    }
+
+    public S3CopyResult moveObjects(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix, S3CopyOptions options) throws IOException {
+        if (!isReady) {
+            log.error("moveObjects error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "moveObjects", () -> bulkCopier.move(sourceBucket, sourcePrefix, targetBucket, targetPrefix, options));
+    }
+
+    /**
+     * upload the files of a local directory that differ from the objects under the prefix, see {@link S3DirectorySync}
+     */
+    public S3SyncResult syncDirectory(Path directory, String bucketName, String prefix) throws IOException {
+        return syncDirectory(directory, bucketName, prefix, new S3SyncOptions());
+    }
+
+    public S3SyncResult syncDirectory(Path directory, String bucketName, String prefix, S3SyncOptions options) throws IOException {
+        if (!isReady) {
+            log.error("syncDirectory error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+        return metrics.record(SERVICE, "syncDirectory", () -> directorySync.sync(directory, bucketName, prefix, options));
     }
 
     public boolean createBucket(String bucketName, BucketCannedACL bucketCannedACL) {
@@ -124,18 +425,13 @@ public class AWS_S3 {
             log.error("createBucket error: aws-s3 initialization failed");
             throw new RuntimeException(" aws-s3 initialization failed");
         }
-        S3Client s3 = S3Client.builder().region(region).credentialsProvider(provider).build();
-        try {
+        CreateBucketRequest bucketRequest = CreateBucketRequest.builder().bucket(bucketName).acl(bucketCannedACL).build();
+        HeadBucketRequest bucketRequestWait = HeadBucketRequest.builder().bucket(bucketName).build();
+        return metrics.record(SERVICE, "createBucket", () -> {
             S3Waiter s3Waiter = s3.waiter();
-            CreateBucketRequest bucketRequest = CreateBucketRequest.builder().bucket(bucketName).acl(bucketCannedACL).build();
             s3.createBucket(bucketRequest);
-            HeadBucketRequest bucketRequestWait = HeadBucketRequest.builder().bucket(bucketName).build();
             return s3Waiter.waitUntilBucketExists(bucketRequestWait) != null;
-        } finally {
-            if (s3 != null) {
-                s3.close();
-            }
-        }
+        });
     }
 
     public URL presignGetObject(String bucketName, String objectKey) {
@@ -147,32 +443,216 @@ public class AWS_S3 {
             log.error("presignGetObject error : max preSign duration is 7 days");
             throw new IllegalArgumentException("max preSign duration is 7 days");
         }
+        if (!isReady) {
+            log.error("presignGetObject error: aws-s3 initialization failed");
+            throw new RuntimeException(" aws-s3 initialization failed");
+        }
+
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .build();
+
+        GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofSeconds(durationInSeconds))
+                .getObjectRequest(getObjectRequest)
+                .build();
+
+        return metrics.record(SERVICE, "presignGetObject",
+                () -> presignedUrlCache.get(bucketName, objectKey, durationInSeconds, () -> clientRegistry.presigner(bucketName).presignGetObject(getObjectPresignRequest)));
+    }
+
+    /**
+     * skip, copy and upload counters of dedup mode, null unless s3_dedup_enabled is set
+     */
+    public S3DedupUploader getDedupUploader() {
+        return dedupUploader;
+    }
+
+    /**
+     * hit ratio and bytes served of the object cache, null unless s3_cache_enabled is set
+     */
+    public S3ObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    /**
+     * hit, miss and eviction counters of the presigned url cache
+     */
+    public S3PresignedUrlCache getPresignedUrlCache() {
+        return presignedUrlCache;
+    }
+
+    /**
+     * hedged and won counts and the current hedging delay of single-stream GETs
+     */
+    public S3HedgedReader getHedgedReader() {
+        return hedgedReader;
+    }
+
+    /**
+     * profiles, clients and the bucket to region cache
+     */
+    public S3ClientRegistry getClientRegistry() {
+        return clientRegistry;
+    }
+
+    private boolean upload(PutObjectRequest putOb, byte[] bytesArray) {
+        byte[] compressed = compressed(putOb, ByteBuffer.wrap(bytesArray));
+        if (compressed != null) {
+            putOb = encoded(putOb, bytesArray.length);
+            bytesArray = compressed;
+        }
+        return dedupUploader != null ? dedupUploader.upload(putOb, bytesArray) : s3.putObject(putOb, RequestBody.fromBytes(bytesArray)).sdkHttpResponse().isSuccessful();
+    }
 
-        S3Presigner s3Presigner = null;
-        URL url = null;
-        try {
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(objectKey)
-                    .build();
+    private boolean upload(PutObjectRequest putOb, ByteBuffer byteBuffer) {
+        byte[] compressed = compressed(putOb, byteBuffer);
+        if (compressed != null) {
+            putOb = encoded(putOb, byteBuffer.remaining());
+            byteBuffer = ByteBuffer.wrap(compressed);
+        }
+        return dedupUploader != null ? dedupUploader.upload(putOb, byteBuffer) : multipartUploader.upload(putOb, byteBuffer);
+    }
 
-            GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
-                    .signatureDuration(Duration.ofSeconds(durationInSeconds))
-                    .getObjectRequest(getObjectRequest)
-                    .build();
+    private boolean upload(PutObjectRequest putOb, Path path) throws IOException {
+        long size = Files.size(path);
+        if (isCompressible(putOb, size)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                return upload(putOb, in, size);
+            }
+        }
+        return dedupUploader != null ? dedupUploader.upload(putOb, path) : multipartUploader.upload(putOb, path);
+    }
 
-            s3Presigner = S3Presigner.builder()
-                    .credentialsProvider(provider)
-                    .region(region)
-                    .build();
+    /**
+     * compresses while the stream is read, size is the uncompressed length or -1 when it is not known
+     */
+    private boolean upload(PutObjectRequest putOb, InputStream inputStream, long size) throws IOException {
+        if (isCompressible(putOb, size)) {
+            putOb = encoded(putOb, size);
+            try (InputStream compressing = compression.compress(inputStream)) {
+                return dedupUploader != null ? dedupUploader.upload(putOb, compressing) : multipartUploader.upload(putOb, compressing);
+            }
+        }
+        return dedupUploader != null ? dedupUploader.upload(putOb, inputStream) : multipartUploader.upload(putOb, inputStream);
+    }
 
-            PresignedGetObjectRequest presignedGetObjectRequest = s3Presigner.presignGetObject(getObjectPresignRequest);
+    /**
+     * an encoded copy of the remaining bytes, or null when it is not worth storing encoded
+     */
+    private byte[] compressed(PutObjectRequest putOb, ByteBuffer byteBuffer) {
+        if (!isCompressible(putOb, byteBuffer.remaining())) {
+            return null;
+        }
+        byte[] compressed = compression.compress(byteBuffer);
+        return compressed.length < byteBuffer.remaining() ? compressed : null;
+    }
+
+    /**
+     * a size of -1 is not known, such content is compressed whenever its type is compressible
+     */
+    private boolean isCompressible(PutObjectRequest putOb, long size) {
+        return compression != S3Compression.NONE && putOb.contentEncoding() == null && (size < 0 || size >= compressionMinSize)
+                && S3Compression.isCompressible(putOb.contentType());
+    }
+
+    private PutObjectRequest encoded(PutObjectRequest putOb, long originalSize) {
+        Map<String, String> metadata = putOb.hasMetadata() ? new HashMap<>(putOb.metadata()) : new HashMap<>();
+        if (originalSize >= 0) {
+            metadata.put(S3Compression.ORIGINAL_SIZE_METADATA, Long.toString(originalSize));
+        }
+        return putOb.toBuilder().contentEncoding(compression.contentEncoding()).metadata(metadata).build();
+    }
 
-            if (presignedGetObjectRequest != null) url = presignedGetObjectRequest.url();
-        } finally {
-            if (s3Presigner != null) s3Presigner.close();
+    /**
+     * @return the object url, or null when the upload was not successful
+     */
+    private String uploaded(String bucketName, String objectKey, boolean successful) {
+        if (!successful) {
+            return null;
         }
+        written(bucketName, objectKey);
+        return objectUrl(bucketName, objectKey);
+    }
+
+    /**
+     * drop the cached copy of an object that was written through this bean, dedup uploads index the object themselves
+     */
+    private void written(String bucketName, String objectKey) {
+        if (objectCache != null) {
+            objectCache.invalidate(bucketName, objectKey);
+        }
+    }
 
-        return url;
+    /**
+     * forget what is known locally about an object that was deleted through this bean
+     */
+    private void deleted(String bucketName, String objectKey) {
+        if (dedupIndex != null) {
+            dedupIndex.removeObject(bucketName, objectKey);
+        }
+        written(bucketName, objectKey);
+    }
+
+    private String objectUrl(String bucketName, String objectKey) {
+        return clientRegistry.domain(bucketName) + "/" + bucketName + "/" + objectKey;
+    }
+
+    private PutObjectRequest putObjectRequest(String bucketName, String objectKey, Map<String, String> metadata, ObjectCannedACL objectCannedACL, String contentType) {
+        PutObjectRequest.Builder builder = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .acl(objectCannedACL)
+                .metadata(metadata);
+
+        return contentType != null ?
+                builder.contentType(contentType).build() :
+                builder.build();
+    }
+
+    /**
+     * build the clients of the s3_warmup_buckets, learning their regions, and open up to warmup_connections pooled
+     * connections to each with HeadBucket calls, without buckets only the default client is built
+     */
+    public void warmUp() {
+        if (!isReady) {
+            return;
+        }
+        if (warmupBuckets.isEmpty()) {
+            clientRegistry.client(null);
+            clientRegistry.asyncClient(null);
+            return;
+        }
+        for (String bucketName : warmupBuckets) {
+            S3Client client = clientRegistry.client(bucketName);
+            clientRegistry.asyncClient(bucketName);
+            ConnectionWarmUp.open(SERVICE, warmupConnections, () -> client.headBucket(HeadBucketRequest.builder().bucket(bucketName).build()));
+        }
+    }
+
+    /**
+     * release the pooled clients and presigner, called on context shutdown
+     */
+    @Override
+    public void close() {
+        if (transferExecutor != null) {
+            transferExecutor.shutdownNow();
+        }
+        if (hedgedReader != null) {
+            hedgedReader.close();
+        }
+        if (clientRegistry != null) {
+            clientRegistry.close();
+        }
+        if (dedupIndex != null) {
+            dedupIndex.close();
+        }
+        if (objectCache != null) {
+            objectCache.close();
+        }
+        if (ownsClientFactory) {
+            clientFactory.close();
+        }
     }
 }
@@ -1,42 +1,71 @@
 package com.fsolsh.aws;
 
+import com.fsolsh.aws.config.AWSClientFactory;
 import com.fsolsh.aws.config.AWSProperties;
 import com.fsolsh.aws.config.FileType;
+import com.fsolsh.aws.metrics.AWSMetrics;
+import com.fsolsh.aws.outbox.Outbox;
+import com.fsolsh.aws.outbox.OutboxMessage;
+import com.fsolsh.aws.ses.MailAttachment;
+import com.fsolsh.aws.ses.SesBulkMailDispatcher;
+import com.fsolsh.aws.ses.SesMailJob;
+import com.fsolsh.aws.ses.SesRawMessageBuilder;
+import com.fsolsh.aws.support.ConnectionWarmUp;
 import lombok.extern.slf4j.Slf4j;
-import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ses.SesAsyncClient;
 import software.amazon.awssdk.services.ses.SesClient;
 import software.amazon.awssdk.services.ses.model.*;
 import software.amazon.awssdk.utils.StringUtils;
 
-import javax.activation.DataHandler;
-import javax.activation.DataSource;
 import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
-import javax.mail.util.ByteArrayDataSource;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Properties;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * aws send email service
  */
 @Slf4j
-public class AWS_SES {
+public class AWS_SES implements AutoCloseable {
+
+    private static final String SERVICE = "ses";
 
     private Region region;
     private boolean isReady;
+    private AwsCredentialsProvider provider;
+    private volatile SesClient client;
+    private volatile SesAsyncClient asyncClient;
+    private SesBulkMailDispatcher bulkMailDispatcher;
+    private Outbox outbox;
+    private AWSProperties properties;
+    private AWSClientFactory clientFactory;
+    private boolean ownsClientFactory;
+    private AWSMetrics metrics;
 
     public AWS_SES(AWSProperties properties) {
+        this(properties, new AWSClientFactory(properties));
+        this.ownsClientFactory = true;
+    }
+
+    public AWS_SES(AWSProperties properties, AWSClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+        this.metrics = clientFactory.getMetrics();
+        this.properties = properties;
         if (!StringUtils.isEmpty(properties.getSes_region()) && !StringUtils.isEmpty(properties.getSes_access_key()) && !StringUtils.isEmpty(properties.getSes_secret_key())) {
-            System.setProperty("aws.accessKeyId", properties.getSes_access_key());
-            System.setProperty("aws.secretAccessKey", properties.getSes_secret_key());
             this.region = Region.of(properties.getSes_region());
+            this.provider = StaticCredentialsProvider.create(AwsBasicCredentials.create(properties.getSes_access_key(), properties.getSes_secret_key()));
+            if (properties.isSes_outbox_enabled()) {
+                try {
+                    this.outbox = Outbox.open(SERVICE, properties, properties.getSes_dispatcher_workers(), this::deliver);
+                } catch (IOException e) {
+                    log.error("aws-ses outbox initialization failed", e);
+                    throw new RuntimeException(" aws-ses outbox initialization failed", e);
+                }
+            }
             this.isReady = true;
         }
     }
@@ -46,14 +75,10 @@ public class AWS_SES {
             log.error("sendHtmlMail error, aws-ses initialization failed, to : {}", recipient);
             throw new RuntimeException(" aws-ses initialization failed");
         }
-        SesClient client = SesClient.builder().region(region).build();
-        try {
-            return sendHtmlMail(client, sender, recipient, subject, bodyHTML);
-        } finally {
-            if (client != null) {
-                client.close();
-            }
+        if (outbox != null) {
+            return metrics.record(SERVICE, "sendHtmlMail", () -> append(OutboxMessage.htmlMail(sender, recipient, subject, bodyHTML)));
         }
+        return metrics.record(SERVICE, "sendHtmlMail", () -> sendHtmlMail(client(), sender, recipient, subject, bodyHTML));
     }
 
     public boolean sendHtmlMailWithAttachment(String sender, String recipient, String subject, String bodyHTML, String attachmentName, FileType fileType, byte[] attachment) throws IOException, MessagingException {
@@ -61,14 +86,32 @@ public class AWS_SES {
             log.error("sendHtmlMailWithAttachment error, aws-ses initialization failed, to : {}", recipient);
             throw new RuntimeException(" aws-ses initialization failed");
         }
-        SesClient client = SesClient.builder().region(region).build();
-        try {
-            return sendHtmlMailWithAttachment(client, sender, recipient, subject, bodyHTML, attachmentName, fileType, attachment);
-        } finally {
-            if (client != null) {
-                client.close();
-            }
+        List<MailAttachment> attachments = Collections.singletonList(MailAttachment.of(attachmentName, fileType, attachment));
+        return sendRawMail("sendHtmlMailWithAttachment", sender, Collections.singletonList(recipient), subject, bodyHTML, true, attachments).get(recipient) != null;
+    }
+
+    /**
+     * raw mail with any number of attachments, attachment content is streamed into the encoded message
+     */
+    public boolean sendHtmlMailWithAttachments(String sender, String recipient, String subject, String bodyHTML, List<MailAttachment> attachments) throws IOException, MessagingException {
+        if (!isReady) {
+            log.error("sendHtmlMailWithAttachments error, aws-ses initialization failed, to : {}", recipient);
+            throw new RuntimeException(" aws-ses initialization failed");
+        }
+        return sendRawMail("sendHtmlMailWithAttachments", sender, Collections.singletonList(recipient), subject, bodyHTML, true, attachments).get(recipient) != null;
+    }
+
+    /**
+     * one message per recipient sharing the same mime parts
+     *
+     * @return the ses message id per recipient
+     */
+    public Map<String, String> sendHtmlMailWithAttachments(String sender, Collection<String> recipients, String subject, String bodyHTML, List<MailAttachment> attachments) throws IOException, MessagingException {
+        if (!isReady) {
+            log.error("sendHtmlMailWithAttachments error, aws-ses initialization failed, to : {}", recipients);
+            throw new RuntimeException(" aws-ses initialization failed");
         }
+        return sendRawMail("sendHtmlMailWithAttachments", sender, recipients, subject, bodyHTML, true, attachments);
     }
 
     public boolean sendTextMail(String sender, String recipient, String subject, String bodyText) {
@@ -76,14 +119,10 @@ public class AWS_SES {
             log.error("sendTextMail error, aws-ses initialization failed, to : {}", recipient);
             throw new RuntimeException(" aws-ses initialization failed");
         }
-        SesClient client = SesClient.builder().region(region).build();
-        try {
-            return sendTextMail(client, sender, recipient, subject, bodyText);
-        } finally {
-            if (client != null) {
-                client.close();
-            }
+        if (outbox != null) {
+            return metrics.record(SERVICE, "sendTextMail", () -> append(OutboxMessage.textMail(sender, recipient, subject, bodyText)));
         }
+        return metrics.record(SERVICE, "sendTextMail", () -> sendTextMail(client(), sender, recipient, subject, bodyText));
     }
 
     public boolean sendTextMailWithAttachment(String sender, String recipient, String subject, String bodyText, String attachmentName, FileType fileType, byte[] attachment) throws IOException, MessagingException {
@@ -91,25 +130,115 @@ public class AWS_SES {
             log.error("sendTextMailWithAttachment error, aws-ses initialization failed, to : {}", recipient);
             throw new RuntimeException(" aws-ses initialization failed");
         }
-        SesClient client = SesClient.builder().region(region).build();
+        List<MailAttachment> attachments = Collections.singletonList(MailAttachment.of(attachmentName, fileType, attachment));
+        return sendRawMail("sendTextMailWithAttachment", sender, Collections.singletonList(recipient), subject, bodyText, false, attachments).get(recipient) != null;
+    }
+
+    public boolean sendTextMailWithAttachments(String sender, String recipient, String subject, String bodyText, List<MailAttachment> attachments) throws IOException, MessagingException {
+        if (!isReady) {
+            log.error("sendTextMailWithAttachments error, aws-ses initialization failed, to : {}", recipient);
+            throw new RuntimeException(" aws-ses initialization failed");
+        }
+        return sendRawMail("sendTextMailWithAttachments", sender, Collections.singletonList(recipient), subject, bodyText, false, attachments).get(recipient) != null;
+    }
+
+    public Map<String, String> sendTextMailWithAttachments(String sender, Collection<String> recipients, String subject, String bodyText, List<MailAttachment> attachments) throws IOException, MessagingException {
+        if (!isReady) {
+            log.error("sendTextMailWithAttachments error, aws-ses initialization failed, to : {}", recipients);
+            throw new RuntimeException(" aws-ses initialization failed");
+        }
+        return sendRawMail("sendTextMailWithAttachments", sender, recipients, subject, bodyText, false, attachments);
+    }
+
+    /**
+     * non-blocking sendHtmlMail, completes with the ses message id
+     */
+    public CompletableFuture<String> sendHtmlMailAsync(String sender, String recipient, String subject, String bodyHTML) {
+        if (!isReady) {
+            log.error("sendHtmlMailAsync error, aws-ses initialization failed, to : {}", recipient);
+            throw new RuntimeException(" aws-ses initialization failed");
+        }
+        SendEmailRequest emailRequest = emailRequest(sender, recipient, subject, Body.builder().html(Content.builder().data(bodyHTML).build()).build());
+        return metrics.recordAsync(SERVICE, "sendHtmlMailAsync", () -> asyncClient().sendEmail(emailRequest).thenApply(response -> {
+            log.info("sendHtmlMailAsync success to : {}, msgId : {}", recipient, response.messageId());
+            return response.messageId();
+        }));
+    }
+
+    /**
+     * non-blocking sendTextMail, completes with the ses message id
+     */
+    public CompletableFuture<String> sendTextMailAsync(String sender, String recipient, String subject, String bodyText) {
+        if (!isReady) {
+            log.error("sendTextMailAsync error, aws-ses initialization failed, to : {}", recipient);
+            throw new RuntimeException(" aws-ses initialization failed");
+        }
+        SendEmailRequest emailRequest = emailRequest(sender, recipient, subject, Body.builder().text(Content.builder().data(bodyText).build()).build());
+        return metrics.recordAsync(SERVICE, "sendTextMailAsync", () -> asyncClient().sendEmail(emailRequest).thenApply(response -> {
+            log.info("sendTextMailAsync success to : {}, msgId : {}", recipient, response.messageId());
+            return response.messageId();
+        }));
+    }
+
+    /**
+     * queue a mail for the bulk dispatcher, which sends at the account's send quota and groups
+     * template mails into bulk calls, blocks while the dispatcher queue is full
+     *
+     * @return completes with the ses message id
+     */
+    public CompletableFuture<String> dispatchMail(SesMailJob job) throws InterruptedException {
+        if (!isReady) {
+            log.error("dispatchMail error, aws-ses initialization failed, to : {}", job.getRecipient());
+            throw new RuntimeException(" aws-ses initialization failed");
+        }
+        return metrics.recordAsync(SERVICE, "dispatchMail", () -> bulkMailDispatcher().submit(job));
+    }
+
+    /**
+     * the dispatcher is started on first use, reading the send quota once
+     */
+    public synchronized SesBulkMailDispatcher bulkMailDispatcher() {
+        if (bulkMailDispatcher == null) {
+            bulkMailDispatcher = new SesBulkMailDispatcher(client(), properties.getSes_dispatcher_queue_capacity(), properties.getSes_dispatcher_workers(), properties.getSes_dispatcher_max_retries());
+        }
+        return bulkMailDispatcher;
+    }
+
+    /**
+     * the outbox, when ses_outbox_enabled is set
+     */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    private boolean append(OutboxMessage message) {
         try {
-            return sendTextMailWithAttachment(client, sender, recipient, subject, bodyText, attachmentName, fileType, attachment);
-        } finally {
-            if (client != null) {
-                client.close();
-            }
+            outbox.append(message);
+            return true;
+        } catch (IOException e) {
+            log.error("aws-ses outbox append error, to : {}", message.getRecipient(), e);
+            throw new RuntimeException(" aws-ses outbox append failed", e);
         }
     }
 
-    private boolean sendHtmlMail(SesClient client, String sender, String recipient, String subject, String bodyHTML) {
+    private void deliver(OutboxMessage message) {
+        if (message.getType() == OutboxMessage.Type.HTML_MAIL) {
+            sendHtmlMail(client(), message.getSender(), message.getRecipient(), message.getSubject(), message.getBody());
+        } else {
+            sendTextMail(client(), message.getSender(), message.getRecipient(), message.getSubject(), message.getBody());
+        }
+    }
 
+    private SendEmailRequest emailRequest(String sender, String recipient, String subject, Body body) {
         Destination destination = Destination.builder().toAddresses(recipient).build();
-        Content content = Content.builder().data(bodyHTML).build();
         Content sub = Content.builder().data(subject).build();
-        Body body = Body.builder().html(content).build();
         Message msg = Message.builder().subject(sub).body(body).build();
+        return SendEmailRequest.builder().destination(destination).message(msg).source(sender).build();
+    }
 
-        SendEmailRequest emailRequest = SendEmailRequest.builder().destination(destination).message(msg).source(sender).build();
+    private boolean sendHtmlMail(SesClient client, String sender, String recipient, String subject, String bodyHTML) {
+
+        SendEmailRequest emailRequest = emailRequest(sender, recipient, subject, Body.builder().html(Content.builder().data(bodyHTML).build()).build());
         SendEmailResponse response = client.sendEmail(emailRequest);
 
         log.info("sendHtmlMail success to : {}, msgId : {}", recipient, response.messageId());
@@ -120,13 +249,7 @@ public class AWS_SES {
 
     private boolean sendTextMail(SesClient client, String sender, String recipient, String subject, String bodyText) {
 
-        Destination destination = Destination.builder().toAddresses(recipient).build();
-        Content content = Content.builder().data(bodyText).build();
-        Content sub = Content.builder().data(subject).build();
-        Body body = Body.builder().text(content).build();
-        Message msg = Message.builder().subject(sub).body(body).build();
-
-        SendEmailRequest emailRequest = SendEmailRequest.builder().destination(destination).message(msg).source(sender).build();
+        SendEmailRequest emailRequest = emailRequest(sender, recipient, subject, Body.builder().text(Content.builder().data(bodyText).build()).build());
         SendEmailResponse response = client.sendEmail(emailRequest);
 
         log.info("sendTextMail success to : {}, msgId : {}", recipient, response.messageId());
@@ -134,83 +257,93 @@ public class AWS_SES {
         return response.messageId() != null;
     }
 
-    private boolean sendHtmlMailWithAttachment(SesClient client, String sender, String recipient, String subject, String bodyHTML, String attachmentName, FileType fileType, byte[] attachment) throws MessagingException, IOException {
-
-        Session session = Session.getDefaultInstance(new Properties());
-
-        //subject, from , to
-        MimeMessage message = new MimeMessage(session);
-        message.setSubject(subject, "UTF-8");
-        message.setFrom(new InternetAddress(sender));
-        message.setRecipients(javax.mail.Message.RecipientType.TO, recipient);
-
-        //multiPart
-        MimeMultipart multiPart = new MimeMultipart();
-
-        //html part
-        MimeBodyPart htmlBody = new MimeBodyPart();
-        htmlBody.setContent(bodyHTML, "text/html; charset=UTF-8");
-        multiPart.addBodyPart(htmlBody);
-
-        //attachment part
-        MimeBodyPart attachmentBody = new MimeBodyPart();
-        DataSource dataSource = new ByteArrayDataSource(attachment, fileType.getMiniType());
-        attachmentBody.setFileName(attachmentName);
-        attachmentBody.setDataHandler(new DataHandler(dataSource));
-        multiPart.addBodyPart(attachmentBody);
-
-        message.setContent(multiPart);
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        message.writeTo(outputStream);
-
-        RawMessage rawMessage = RawMessage.builder().data(SdkBytes.fromByteBuffer(ByteBuffer.wrap(outputStream.toByteArray()))).build();
-
-        SendRawEmailRequest rawEmailRequest = SendRawEmailRequest.builder().rawMessage(rawMessage).build();
-        SendRawEmailResponse rawEmailResponse = client.sendRawEmail(rawEmailRequest);
-
-        log.info("sendHtmlMailWithAttachment success to : {}, msgId : {}", recipient, rawEmailResponse.messageId());
-
-        return rawEmailResponse.messageId() != null;
+    private Map<String, String> sendRawMail(String operation, String sender, Collection<String> recipients, String subject, String body, boolean html, List<MailAttachment> attachments) throws MessagingException, IOException {
+        return metrics.<Map<String, String>, MessagingException, IOException>record(SERVICE, operation, () -> {
+            SesRawMessageBuilder messageBuilder = new SesRawMessageBuilder(body, html, attachments);
+            Map<String, String> messageIds = new LinkedHashMap<>();
+            for (String recipient : recipients) {
+                RawMessage rawMessage = RawMessage.builder().data(messageBuilder.build(sender, recipient, subject)).build();
+                SendRawEmailResponse rawEmailResponse = client().sendRawEmail(SendRawEmailRequest.builder().rawMessage(rawMessage).build());
+                log.info("{} success to : {}, msgId : {}", operation, recipient, rawEmailResponse.messageId());
+                messageIds.put(recipient, rawEmailResponse.messageId());
+            }
+            return messageIds;
+        });
     }
 
-    private boolean sendTextMailWithAttachment(SesClient client, String sender, String recipient, String subject, String bodyText, String attachmentName, FileType fileType, byte[] attachment) throws MessagingException, IOException {
-        Session session = Session.getDefaultInstance(new Properties());
-
-        //subject, from , to
-        MimeMessage message = new MimeMessage(session);
-        message.setSubject(subject, "UTF-8");
-        message.setFrom(new InternetAddress(sender));
-        message.setRecipients(javax.mail.Message.RecipientType.TO, recipient);
-
-        //multiPart
-        MimeMultipart multiPart = new MimeMultipart();
-
-        //html part
-        MimeBodyPart textBody = new MimeBodyPart();
-        textBody.setContent(bodyText, "text/plain; charset=UTF-8");
-        multiPart.addBodyPart(textBody);
-
-        //attachment part
-        MimeBodyPart attachmentBody = new MimeBodyPart();
-        DataSource dataSource = new ByteArrayDataSource(attachment, fileType.getMiniType());
-        attachmentBody.setFileName(attachmentName);
-        attachmentBody.setDataHandler(new DataHandler(dataSource));
-        multiPart.addBodyPart(attachmentBody);
-
-        message.setContent(multiPart);
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        message.writeTo(outputStream);
-
-        RawMessage rawMessage = RawMessage.builder().data(SdkBytes.fromByteBuffer(ByteBuffer.wrap(outputStream.toByteArray()))).build();
+    /**
+     * build the clients, resolve the credentials and open up to warmup_connections pooled connections with
+     * GetSendQuota calls, so the first mail does not pay for it
+     */
+    public void warmUp() {
+        if (!isReady) {
+            return;
+        }
+        provider.resolveCredentials();
+        asyncClient();
+        SesClient client = client();
+        ConnectionWarmUp.open(SERVICE, properties.getWarmup_connections(), client::getSendQuota);
+    }
 
-        SendRawEmailRequest rawEmailRequest = SendRawEmailRequest.builder().rawMessage(rawMessage).build();
-        SendRawEmailResponse rawEmailResponse = client.sendRawEmail(rawEmailRequest);
+    /**
+     * the sdk client and its pool are built on first use
+     */
+    private SesClient client() {
+        SesClient client = this.client;
+        if (client == null) {
+            synchronized (this) {
+                client = this.client;
+                if (client == null) {
+                    client = clientFactory.syncClient(SesClient.builder(), region, provider, properties.getSes_endpoint());
+                    this.client = client;
+                }
+            }
+        }
+        return client;
+    }
 
-        log.info("sendTextMailWithAttachment success to : {}, msgId : {}", recipient, rawEmailResponse.messageId());
+    /**
+     * building the first async client also starts the shared event loop
+     */
+    private SesAsyncClient asyncClient() {
+        SesAsyncClient asyncClient = this.asyncClient;
+        if (asyncClient == null) {
+            synchronized (this) {
+                asyncClient = this.asyncClient;
+                if (asyncClient == null) {
+                    asyncClient = clientFactory.asyncClient(SesAsyncClient.builder(), region, provider, properties.getSes_endpoint());
+                    this.asyncClient = asyncClient;
+                }
+            }
+        }
+        return asyncClient;
+    }
 
-        return rawEmailResponse.messageId() != null;
+    /**
+     * release the pooled clients, called on context shutdown
+     */
+    @Override
+    public void close() {
+        if (outbox != null) {
+            outbox.close();
+        }
+        synchronized (this) {
+            if (bulkMailDispatcher != null) {
+                bulkMailDispatcher.close();
+            }
+        }
+        synchronized (this) {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+            if (asyncClient != null) {
+                asyncClient.close();
+                asyncClient = null;
+            }
+        }
+        if (ownsClientFactory) {
+            clientFactory.close();
+        }
     }
 }
-
@@ -1,32 +1,72 @@
 package com.fsolsh.aws;
 
+import com.fsolsh.aws.config.AWSClientFactory;
 import com.fsolsh.aws.config.AWSProperties;
+import com.fsolsh.aws.metrics.AWSMetrics;
+import com.fsolsh.aws.outbox.Outbox;
+import com.fsolsh.aws.outbox.OutboxMessage;
+import com.fsolsh.aws.sns.SmsMessage;
+import com.fsolsh.aws.sns.SmsResult;
+import com.fsolsh.aws.sns.SnsSmsSender;
+import com.fsolsh.aws.support.ConnectionWarmUp;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sns.SnsAsyncClient;
 import software.amazon.awssdk.services.sns.SnsClient;
 import software.amazon.awssdk.services.sns.model.PublishRequest;
 import software.amazon.awssdk.services.sns.model.PublishResponse;
 import software.amazon.awssdk.utils.StringUtils;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * AWS_SNS
  */
 @Slf4j
-public class AWS_SNS {
+public class AWS_SNS implements AutoCloseable {
+
+    private static final String SERVICE = "sns";
 
-    private static Region region;
-    private static boolean isReady;
+    private Region region;
+    private boolean isReady;
     private AwsCredentialsProvider provider;
+    private volatile SnsClient snsClient;
+    private volatile SnsAsyncClient snsAsyncClient;
+    private SnsSmsSender smsSender;
+    private Outbox outbox;
+    private AWSProperties properties;
+    private AWSClientFactory clientFactory;
+    private boolean ownsClientFactory;
+    private AWSMetrics metrics;
 
     public AWS_SNS(AWSProperties properties) {
+        this(properties, new AWSClientFactory(properties));
+        this.ownsClientFactory = true;
+    }
+
+    public AWS_SNS(AWSProperties properties, AWSClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+        this.metrics = clientFactory.getMetrics();
+        this.properties = properties;
         if (!StringUtils.isEmpty(properties.getSns_region()) && !StringUtils.isEmpty(properties.getSns_access_key()) && !StringUtils.isEmpty(properties.getSns_secret_key())) {
             region = Region.of(properties.getSns_region());
             AwsCredentials awsCredentials = AwsBasicCredentials.create(properties.getSns_access_key(), properties.getSns_secret_key());
             this.provider = StaticCredentialsProvider.create(awsCredentials);
+            if (properties.isSns_outbox_enabled()) {
+                try {
+                    this.outbox = Outbox.open(SERVICE, properties, properties.getSns_sms_transactional_concurrency(), this::deliver);
+                } catch (IOException e) {
+                    log.error("aws-sns outbox initialization failed", e);
+                    throw new RuntimeException(" aws-sns outbox initialization failed", e);
+                }
+            }
             isReady = true;
         }
     }
@@ -38,26 +78,177 @@ public class AWS_SNS {
             throw new RuntimeException(" aws-sns initialization failed");
         }
 
-        SnsClient snsClient = SnsClient.builder().credentialsProvider(provider).region(region).build();
+        if (outbox != null && !StringUtils.isEmpty(phoneNumber)) {
+            return metrics.record(SERVICE, "sendTextSMS", () -> append(OutboxMessage.sms(phoneNumber, message)));
+        }
+        return metrics.record(SERVICE, "sendTextSMS", () -> this.sendTextSMS(snsClient(), message, phoneNumber));
+    }
+
+    /**
+     * non-blocking sendTextSMS, completes with the sns message id, or null for an empty phone number
+     */
+    public CompletableFuture<String> sendTextSMSAsync(String message, String phoneNumber) {
+
+        if (!isReady) {
+            log.error("sendTextSMSAsync error : aws-sns initialization failed, to : {}", phoneNumber);
+            throw new RuntimeException(" aws-sns initialization failed");
+        }
+        if (StringUtils.isEmpty(phoneNumber)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return metrics.recordAsync(SERVICE, "sendTextSMSAsync", () -> snsAsyncClient().publish(publishRequest(message, phoneNumber)).thenApply(response -> {
+            log.info("sendTextSMSAsync success to : {}", phoneNumber);
+            return response.messageId();
+        }));
+    }
+
+    /**
+     * bulk send with bounded concurrency, paced by the account and per-country rates, blocks until every message is done
+     *
+     * @return per-recipient results in the order of the input
+     */
+    public List<SmsResult> sendTextSMS(Collection<SmsMessage> messages) throws InterruptedException {
+        if (!isReady) {
+            log.error("sendTextSMS error : aws-sns initialization failed, messages : {}", messages.size());
+            throw new RuntimeException(" aws-sns initialization failed");
+        }
+        return metrics.record(SERVICE, "sendTextSMSBulk", () -> smsSender().sendAll(messages));
+    }
+
+    /**
+     * queue one message on its lane, transactional messages never wait behind promotional ones
+     */
+    public CompletableFuture<SmsResult> sendTextSMSAsync(SmsMessage message) throws InterruptedException {
+        if (!isReady) {
+            log.error("sendTextSMSAsync error : aws-sns initialization failed, to : {}", message.getPhoneNumber());
+            throw new RuntimeException(" aws-sns initialization failed");
+        }
+        return metrics.recordAsync(SERVICE, "sendTextSMSAsync", () -> smsSender().send(message));
+    }
+
+    /**
+     * the sender threads are started on first use
+     */
+    public synchronized SnsSmsSender smsSender() {
+        if (smsSender == null) {
+            smsSender = new SnsSmsSender(snsClient(), properties.getSns_sms_rate_per_second(), properties.getSns_sms_country_rates(),
+                    properties.getSns_sms_promotional_rate_share(), properties.getSns_sms_transactional_concurrency(),
+                    properties.getSns_sms_promotional_concurrency(), properties.getSns_sms_queue_capacity());
+        }
+        return smsSender;
+    }
+
+    /**
+     * the outbox, when sns_outbox_enabled is set
+     */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    private boolean append(OutboxMessage message) {
         try {
-            return this.sendTextSMS(snsClient, message, phoneNumber);
-        } finally {
-            if (snsClient != null) {
-                snsClient.close();
-            }
+            outbox.append(message);
+            return true;
+        } catch (IOException e) {
+            log.error("aws-sns outbox append error, to : {}", message.getRecipient(), e);
+            throw new RuntimeException(" aws-sns outbox append failed", e);
         }
     }
 
+    private void deliver(OutboxMessage message) {
+        sendTextSMS(snsClient(), message.getBody(), message.getRecipient());
+    }
+
     private boolean sendTextSMS(SnsClient snsClient, String message, String phoneNumber) {
         if (StringUtils.isEmpty(phoneNumber)) {
             return false;
         }
-        PublishRequest request = PublishRequest.builder()
-                .message(message)
-                .phoneNumber(phoneNumber.startsWith("+") ? phoneNumber : "+".concat(phoneNumber))
-                .build();
-        PublishResponse response = snsClient.publish(request);
+        PublishResponse response = snsClient.publish(publishRequest(message, phoneNumber));
         log.info("sendTextSMS success to : {}", phoneNumber);
         return response.messageId() != null;
     }
+
+    private PublishRequest publishRequest(String message, String phoneNumber) {
+        return PublishRequest.builder()
+                .message(message)
+                .phoneNumber(SnsSmsSender.normalizePhoneNumber(phoneNumber))
+                .build();
+    }
+
+    /**
+     * build the clients, resolve the credentials and open up to warmup_connections pooled connections with
+     * GetSMSAttributes calls, so the first sms does not pay for it
+     */
+    public void warmUp() {
+        if (!isReady) {
+            return;
+        }
+        provider.resolveCredentials();
+        snsAsyncClient();
+        SnsClient client = snsClient();
+        ConnectionWarmUp.open(SERVICE, properties.getWarmup_connections(), client::getSMSAttributes);
+    }
+
+    /**
+     * the sdk client and its pool are built on first use
+     */
+    private SnsClient snsClient() {
+        SnsClient client = this.snsClient;
+        if (client == null) {
+            synchronized (this) {
+                client = this.snsClient;
+                if (client == null) {
+                    client = clientFactory.syncClient(SnsClient.builder(), region, provider, properties.getSns_endpoint());
+                    this.snsClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * building the first async client also starts the shared event loop
+     */
+    private SnsAsyncClient snsAsyncClient() {
+        SnsAsyncClient client = this.snsAsyncClient;
+        if (client == null) {
+            synchronized (this) {
+                client = this.snsAsyncClient;
+                if (client == null) {
+                    client = clientFactory.asyncClient(SnsAsyncClient.builder(), region, provider, properties.getSns_endpoint());
+                    this.snsAsyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * release the pooled clients, called on context shutdown
+     */
+    @Override
+    public void close() {
+        if (outbox != null) {
+            outbox.close();
+        }
+        synchronized (this) {
+            if (smsSender != null) {
+                smsSender.close();
+            }
+        }
+        synchronized (this) {
+            if (snsClient != null) {
+                snsClient.close();
+                snsClient = null;
+            }
+            if (snsAsyncClient != null) {
+                snsAsyncClient.close();
+                snsAsyncClient = null;
+            }
+        }
+        if (ownsClientFactory) {
+            clientFactory.close();
+        }
+    }
 }
@@ -3,8 +3,13 @@ package com.fsolsh.aws.config;
 import com.fsolsh.aws.AWS_S3;
 import com.fsolsh.aws.AWS_SES;
 import com.fsolsh.aws.AWS_SNS;
+import com.fsolsh.aws.metrics.AWSMetrics;
+import com.fsolsh.aws.metrics.MicrometerAWSMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -19,19 +24,51 @@ public class AWSAutoConfiguration {
     @Autowired
     private AWSProperties awsProperties;
 
-    @Bean
-    public AWS_S3 aws_s3() {
-        return new AWS_S3(awsProperties);
+    @Bean(destroyMethod = "close")
+    public AWSClientFactory awsClientFactory(ObjectProvider<AWSMetrics> awsMetrics) {
+        return new AWSClientFactory(awsProperties, awsMetrics.getIfAvailable(() -> AWSMetrics.NOOP));
     }
 
-    @Bean
-    public AWS_SES aws_ses() {
-        return new AWS_SES(awsProperties);
+    /**
+     * each service is created only when its own keys are configured
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "aws", name = {"s3_access_key", "s3_secret_key", "s3_region"})
+    public AWS_S3 aws_s3(AWSClientFactory awsClientFactory) {
+        return new AWS_S3(awsProperties, awsClientFactory);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "aws", name = {"ses_access_key", "ses_secret_key", "ses_region"})
+    public AWS_SES aws_ses(AWSClientFactory awsClientFactory) {
+        return new AWS_SES(awsProperties, awsClientFactory);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "aws", name = {"sns_access_key", "sns_secret_key", "sns_region"})
+    public AWS_SNS aws_sns(AWSClientFactory awsClientFactory) {
+        return new AWS_SNS(awsProperties, awsClientFactory);
     }
 
     @Bean
-    public AWS_SNS aws_sns() {
-        return new AWS_SNS(awsProperties);
+    @ConditionalOnProperty(prefix = "aws", name = "warmup_enabled", havingValue = "true")
+    public AWSWarmUp awsWarmUp(ObjectProvider<AWS_S3> aws_s3, ObjectProvider<AWS_SES> aws_ses, ObjectProvider<AWS_SNS> aws_sns) {
+        return new AWSWarmUp(aws_s3, aws_ses, aws_sns);
+    }
+
+    /**
+     * metrics go to the application's MeterRegistry when micrometer is present, otherwise nothing is recorded
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class AWSMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(AWSMetrics.class)
+        public AWSMetrics awsMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+            MeterRegistry registry = meterRegistry.getIfAvailable();
+            return registry != null ? new MicrometerAWSMetrics(registry) : AWSMetrics.NOOP;
+        }
     }
 
 }
@@ -0,0 +1,205 @@
+package com.fsolsh.aws.config;
+
+import com.fsolsh.aws.metrics.AWSMetrics;
+import com.fsolsh.aws.metrics.MetricsExecutionInterceptor;
+import com.fsolsh.aws.resilience.CircuitBreakerExecutionInterceptor;
+import com.fsolsh.aws.resilience.CircuitBreakers;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsAsyncClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsSyncClientBuilder;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryMode;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.core.retry.conditions.TokenBucketExceptionCostFunction;
+import software.amazon.awssdk.core.retry.conditions.TokenBucketRetryCondition;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.utils.StringUtils;
+
+import java.net.URI;
+
+/**
+ * builds the long-lived, thread-safe aws clients shared by a service for the life of the bean,
+ * async clients of all services run on one shared event loop owned by this factory
+ */
+public class AWSClientFactory implements AutoCloseable {
+
+    private static final int RETRY_COST = 5;
+
+    private final AWSProperties properties;
+    private final AWSMetrics metrics;
+    private final CircuitBreakers circuitBreakers;
+    private SdkEventLoopGroup eventLoopGroup;
+
+    public AWSClientFactory(AWSProperties properties) {
+        this(properties, AWSMetrics.NOOP);
+    }
+
+    public AWSClientFactory(AWSProperties properties, AWSMetrics metrics) {
+        this.properties = properties;
+        this.metrics = metrics;
+        this.circuitBreakers = properties.isCircuit_breaker_enabled() ?
+                new CircuitBreakers(properties.getCircuit_breaker_failure_threshold(), properties.getCircuit_breaker_open_duration()) :
+                null;
+    }
+
+    public AWSMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * state of the breaker of every endpoint called so far, null unless circuit_breaker_enabled is set
+     */
+    public CircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * build a sync client backed by its own pooled http client, closing the client also closes the pool
+     */
+    public <B extends AwsClientBuilder<B, C> & AwsSyncClientBuilder<B, C>, C> C syncClient(B builder, Region region, AwsCredentialsProvider provider) {
+        return syncClient(builder, region, provider, null);
+    }
+
+    /**
+     * @param endpoint overrides the regional endpoint when not empty
+     */
+    public <B extends AwsClientBuilder<B, C> & AwsSyncClientBuilder<B, C>, C> C syncClient(B builder, Region region, AwsCredentialsProvider provider, String endpoint) {
+        return endpoint(builder, endpoint).region(region)
+                .credentialsProvider(provider)
+                .httpClientBuilder(httpClientBuilder())
+                .overrideConfiguration(overrideConfiguration())
+                .build();
+    }
+
+    /**
+     * build an async client on the shared event loop, closing the client keeps the event loop running
+     */
+    public <B extends AwsClientBuilder<B, C> & AwsAsyncClientBuilder<B, C>, C> C asyncClient(B builder, Region region, AwsCredentialsProvider provider) {
+        return asyncClient(builder, region, provider, null);
+    }
+
+    public <B extends AwsClientBuilder<B, C> & AwsAsyncClientBuilder<B, C>, C> C asyncClient(B builder, Region region, AwsCredentialsProvider provider, String endpoint) {
+        return endpoint(builder, endpoint).region(region)
+                .credentialsProvider(provider)
+                .httpClientBuilder(asyncHttpClientBuilder())
+                .overrideConfiguration(overrideConfiguration())
+                .build();
+    }
+
+    public S3Presigner s3Presigner(Region region, AwsCredentialsProvider provider) {
+        return s3Presigner(region, provider, null);
+    }
+
+    /**
+     * presigned urls for an overridden endpoint are path-style, like the clients built for it
+     */
+    public S3Presigner s3Presigner(Region region, AwsCredentialsProvider provider, String endpoint) {
+        S3Presigner.Builder builder = S3Presigner.builder()
+                .region(region)
+                .credentialsProvider(provider);
+        if (!StringUtils.isEmpty(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    private static <B extends AwsClientBuilder<B, C>, C> B endpoint(B builder, String endpoint) {
+        return StringUtils.isEmpty(endpoint) ? builder : builder.endpointOverride(URI.create(endpoint));
+    }
+
+    /**
+     * every client reports its http attempts, skipped entirely when metrics are off, and gets its own retry budget
+     */
+    private ClientOverrideConfiguration overrideConfiguration() {
+        ClientOverrideConfiguration.Builder builder = ClientOverrideConfiguration.builder()
+                .retryPolicy(retryPolicy())
+                .apiCallTimeout(properties.getApi_call_timeout())
+                .apiCallAttemptTimeout(properties.getApi_call_attempt_timeout());
+        if (circuitBreakers != null) {
+            builder.addExecutionInterceptor(new CircuitBreakerExecutionInterceptor(circuitBreakers));
+        }
+        if (metrics != AWSMetrics.NOOP) {
+            builder.addExecutionInterceptor(new MetricsExecutionInterceptor(metrics));
+        }
+        return builder.build();
+    }
+
+    /**
+     * throttling draws from the budget like any other retry, so a throttled endpoint is backed off from
+     * instead of being retried at full rate
+     */
+    private RetryPolicy retryPolicy() {
+        return RetryPolicy.builder(RetryMode.STANDARD)
+                .numRetries(properties.getRetry_max_retries())
+                .backoffStrategy(FullJitterBackoffStrategy.builder()
+                        .baseDelay(properties.getRetry_base_delay())
+                        .maxBackoffTime(properties.getRetry_max_backoff())
+                        .build())
+                .throttlingBackoffStrategy(FullJitterBackoffStrategy.builder()
+                        .baseDelay(properties.getRetry_throttling_base_delay())
+                        .maxBackoffTime(properties.getRetry_max_backoff())
+                        .build())
+                .retryCapacityCondition(TokenBucketRetryCondition.builder()
+                        .tokenBucketSize(properties.getRetry_budget())
+                        .exceptionCostFunction(TokenBucketExceptionCostFunction.builder()
+                                .throttlingExceptionCost(RETRY_COST)
+                                .defaultExceptionCost(RETRY_COST)
+                                .build())
+                        .build())
+                .build();
+    }
+
+    private ApacheHttpClient.Builder httpClientBuilder() {
+        return ApacheHttpClient.builder()
+                .maxConnections(properties.getHttp_max_connections())
+                .connectionTimeout(properties.getHttp_connection_timeout())
+                .socketTimeout(properties.getHttp_socket_timeout())
+                .connectionAcquisitionTimeout(properties.getHttp_connection_acquire_timeout())
+                .connectionTimeToLive(properties.getHttp_connection_ttl())
+                .connectionMaxIdleTime(properties.getHttp_connection_max_idle())
+                .useIdleConnectionReaper(properties.isHttp_use_idle_connection_reaper());
+    }
+
+    private NettyNioAsyncHttpClient.Builder asyncHttpClientBuilder() {
+        return NettyNioAsyncHttpClient.builder()
+                .eventLoopGroup(eventLoopGroup())
+                .maxConcurrency(properties.getHttp_max_connections())
+                .connectionTimeout(properties.getHttp_connection_timeout())
+                .readTimeout(properties.getHttp_socket_timeout())
+                .writeTimeout(properties.getHttp_socket_timeout())
+                .connectionAcquisitionTimeout(properties.getHttp_connection_acquire_timeout())
+                .connectionTimeToLive(properties.getHttp_connection_ttl())
+                .connectionMaxIdleTime(properties.getHttp_connection_max_idle())
+                .useIdleConnectionReaper(properties.isHttp_use_idle_connection_reaper());
+    }
+
+    private synchronized SdkEventLoopGroup eventLoopGroup() {
+        if (eventLoopGroup == null) {
+            SdkEventLoopGroup.Builder builder = SdkEventLoopGroup.builder();
+            if (properties.getHttp_event_loop_threads() > 0) {
+                builder.numberOfThreads(properties.getHttp_event_loop_threads());
+            }
+            eventLoopGroup = builder.build();
+        }
+        return eventLoopGroup;
+    }
+
+    /**
+     * shut down the shared event loop, called on context shutdown after the services are closed
+     */
+    @Override
+    public synchronized void close() {
+        if (eventLoopGroup != null) {
+            eventLoopGroup.eventLoopGroup().shutdownGracefully();
+            eventLoopGroup = null;
+        }
+    }
+}
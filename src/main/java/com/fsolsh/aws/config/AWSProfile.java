@@ -0,0 +1,15 @@
+package com.fsolsh.aws.config;
+
+import lombok.Data;
+
+/**
+ * one named set of credentials, home region and optional endpoint
+ */
+@Data
+public class AWSProfile {
+
+    private String access_key;
+    private String secret_key;
+    private String region;
+    private String endpoint;
+}
@@ -1,8 +1,15 @@
 package com.fsolsh.aws.config;
 
+import com.fsolsh.aws.s3.S3Compression;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Data
 @ConfigurationProperties(prefix = "aws")
 public class AWSProperties {
@@ -10,13 +17,168 @@ public class AWSProperties {
     private String s3_access_key;
     private String s3_secret_key;
     private String s3_region;
+    /**
+     * endpoint override, e.g. a local stand-in or an s3 compatible store, objects are then addressed path-style
+     * and object urls start with this endpoint
+     */
+    private String s3_endpoint;
+    /**
+     * more accounts or regions by profile name, a bucket listed in s3_bucket_profiles is served by that profile,
+     * any other bucket by the s3_* keys above, either way in the bucket's own region, which is taken from
+     * s3_bucket_regions or looked up once when s3_bucket_region_discovery is on
+     */
+    private Map<String, AWSProfile> s3_profiles = new HashMap<>();
+    private Map<String, String> s3_bucket_profiles = new HashMap<>();
+    private Map<String, String> s3_bucket_regions = new HashMap<>();
+    private boolean s3_bucket_region_discovery = true;
+    /**
+     * inputs of at least one part are sent as a multipart upload, parts go out in parallel through
+     * {@code s3_multipart_concurrency} reusable part buffers, downloads fetch ranges of the same size
+     */
+    private int s3_multipart_part_size = 8 * 1024 * 1024;
+    private int s3_multipart_concurrency = 4;
+    private int s3_multipart_part_retries = 3;
+    /**
+     * presigned urls are reused until the safety margin before they expire, 0 disables the cache
+     */
+    private int s3_presign_cache_size = 10000;
+    private Duration s3_presign_cache_safety_margin = Duration.ofSeconds(60);
+    /**
+     * content-addressed puts, an upload whose sha-256 is already known is skipped or turned into a server-side copy,
+     * the index is kept in memory and also in s3_dedup_index_file when set
+     */
+    private boolean s3_dedup_enabled = false;
+    private int s3_dedup_index_size = 100000;
+    private String s3_dedup_index_file;
+    private boolean s3_dedup_head_fallback = true;
+    /**
+     * files uploaded at once by syncDirectory, large files also use the multipart part buffers
+     */
+    private int s3_sync_concurrency = 8;
+    /**
+     * partitions listed at once by scanObjects
+     */
+    private int s3_list_concurrency = 8;
+    /**
+     * objects copied at once by copyObjects and moveObjects, objects of at least s3_copy_part_size are copied
+     * as multipart uploads whose parts are copied in parallel on the multipart transfer threads
+     */
+    private int s3_copy_concurrency = 16;
+    private long s3_copy_part_size = 64 * 1024 * 1024;
+    /**
+     * read-through cache behind getCachedObject, objects up to s3_cache_memory_max_object_size are kept on heap,
+     * larger ones in mapped files under s3_cache_dir, entries older than s3_cache_ttl are revalidated by etag
+     */
+    private boolean s3_cache_enabled = false;
+    private long s3_cache_memory_size = 64 * 1024 * 1024;
+    private int s3_cache_memory_max_object_size = 1024 * 1024;
+    private String s3_cache_dir = "aws-s3-cache";
+    private long s3_cache_disk_size = 1024L * 1024 * 1024;
+    private Duration s3_cache_ttl = Duration.ofSeconds(60);
+    /**
+     * hedged reads, a GET that has not answered within the s3_hedge_percentile latency of recent GETs
+     * (but at least s3_hedge_min_delay) is sent once more and the first answer wins
+     */
+    private boolean s3_hedge_enabled = false;
+    private double s3_hedge_percentile = 0.95;
+    private Duration s3_hedge_min_delay = Duration.ofMillis(20);
+    /**
+     * threads running hedged GETs, a hedged GET takes two while its hedge is out, a GET that finds none free
+     * runs on the caller's thread without a hedge
+     */
+    private int s3_hedge_concurrency = 16;
+    /**
+     * puts of a compressible content type and at least s3_compression_min_size bytes are stored encoded,
+     * with Content-Encoding set and the uncompressed size in the original-size metadata, reads decode them
+     */
+    private S3Compression s3_compression = S3Compression.NONE;
+    private long s3_compression_min_size = 1024;
 
     private String ses_access_key;
     private String ses_secret_key;
     private String ses_region;
+    private String ses_endpoint;
+    /**
+     * bulk dispatcher, paced by the account's GetSendQuota max send rate
+     */
+    private int ses_dispatcher_queue_capacity = 10000;
+    private int ses_dispatcher_workers = 8;
+    private int ses_dispatcher_max_retries = 5;
 
     private String sns_access_key;
     private String sns_secret_key;
     private String sns_region;
+    private String sns_endpoint;
+    /**
+     * bulk sms pipeline, country rates are keyed by calling code without '+', e.g. {"86": 10}
+     */
+    private double sns_sms_rate_per_second = 20;
+    private Map<String, Double> sns_sms_country_rates = new HashMap<>();
+    private double sns_sms_promotional_rate_share = 0.5;
+    private int sns_sms_transactional_concurrency = 8;
+    private int sns_sms_promotional_concurrency = 4;
+    private int sns_sms_queue_capacity = 10000;
+
+    /**
+     * pooled http layer, each service owns one pool of this size
+     */
+    private int http_max_connections = 50;
+    private Duration http_connection_timeout = Duration.ofSeconds(2);
+    private Duration http_socket_timeout = Duration.ofSeconds(30);
+    private Duration http_connection_acquire_timeout = Duration.ofSeconds(10);
+    private Duration http_connection_ttl = Duration.ofMinutes(5);
+    private Duration http_connection_max_idle = Duration.ofSeconds(60);
+    private boolean http_use_idle_connection_reaper = true;
+    /**
+     * threads of the event loop shared by the async clients, 0 uses the netty default
+     */
+    private int http_event_loop_threads = 0;
+
+    /**
+     * deadline of a whole call including retries, and of each attempt, both unset by default, so large transfers
+     * are not cut off and slow attempts are left to http_socket_timeout
+     */
+    private Duration api_call_timeout;
+    private Duration api_call_attempt_timeout;
+    /**
+     * full-jitter exponential backoff, throttled calls back off from a longer base, every retry spends from a
+     * per-client budget of retry_budget tokens (5 per retry, refilled by successes), an empty budget stops retrying
+     */
+    private int retry_max_retries = 3;
+    private Duration retry_base_delay = Duration.ofMillis(100);
+    private Duration retry_throttling_base_delay = Duration.ofMillis(500);
+    private Duration retry_max_backoff = Duration.ofSeconds(20);
+    private int retry_budget = 500;
+    /**
+     * per service and region, opens after circuit_breaker_failure_threshold failed calls in a row and fails
+     * calls fast for circuit_breaker_open_duration before probing again, off unless enabled
+     */
+    private boolean circuit_breaker_enabled = false;
+    private int circuit_breaker_failure_threshold = 20;
+    private Duration circuit_breaker_open_duration = Duration.ofSeconds(30);
+
+    /**
+     * opt-in outbox, sendHtmlMail / sendTextMail and sendTextSMS append to a local log under outbox_dir and
+     * return at once, a background drainer delivers at least once and replays what is left after a restart,
+     * a batch is delivered on as many threads as ses_dispatcher_workers / sns_sms_transactional_concurrency
+     */
+    private boolean ses_outbox_enabled = false;
+    private boolean sns_outbox_enabled = false;
+    private String outbox_dir = "aws-outbox";
+    private int outbox_segment_size = 64 * 1024 * 1024;
+    private int outbox_batch_size = 100;
+    private int outbox_max_retries = 10;
+    /**
+     * force every append to disk, only needed to survive power loss, a jvm crash loses nothing either way
+     */
+    private boolean outbox_sync_on_append = false;
+
+    /**
+     * opt-in warm-up after startup, clients are built, credentials resolved and warmup_connections connections
+     * opened per service in the background, s3 connects to the s3_warmup_buckets and learns their regions
+     */
+    private boolean warmup_enabled = false;
+    private int warmup_connections = 4;
+    private List<String> s3_warmup_buckets = new ArrayList<>();
 
 }
@@ -0,0 +1,48 @@
+package com.fsolsh.aws.config;
+
+import com.fsolsh.aws.AWS_S3;
+import com.fsolsh.aws.AWS_SES;
+import com.fsolsh.aws.AWS_SNS;
+import com.fsolsh.aws.support.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * opt-in warm-up, once the context is built the configured services build their clients, resolve credentials
+ * and open pooled connections on a background thread, startup does not wait for it and a failed warm-up is only logged
+ */
+@Slf4j
+public class AWSWarmUp implements SmartInitializingSingleton {
+
+    private final ObjectProvider<AWS_S3> s3;
+    private final ObjectProvider<AWS_SES> ses;
+    private final ObjectProvider<AWS_SNS> sns;
+
+    public AWSWarmUp(ObjectProvider<AWS_S3> s3, ObjectProvider<AWS_SES> ses, ObjectProvider<AWS_SNS> sns) {
+        this.s3 = s3;
+        this.ses = ses;
+        this.sns = sns;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        new NamedThreadFactory("aws-warmup").newThread(() -> {
+            long start = System.nanoTime();
+            s3.ifAvailable(service -> warmUp("s3", service::warmUp));
+            ses.ifAvailable(service -> warmUp("ses", service::warmUp));
+            sns.ifAvailable(service -> warmUp("sns", service::warmUp));
+            log.info("aws warm-up done in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }).start();
+    }
+
+    private static void warmUp(String service, Runnable warmUp) {
+        try {
+            warmUp.run();
+        } catch (RuntimeException e) {
+            log.warn("aws-{} warm-up failed : {}", service, e.getMessage());
+        }
+    }
+}
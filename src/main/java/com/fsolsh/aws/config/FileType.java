@@ -4,19 +4,51 @@ package com.fsolsh.aws.config;
  * attachment file type
  */
 public enum FileType {
-    WORD("application/msword; charset=UTF-8"),
-    EXCEL("application/x-xls; charset=UTF-8"),
-    PDF("application/pdf; charset=UTF-8"),
-    ZIP("application/zip; charset=UTF-8"),
-    DOWNLOAD("application/octet-stream; charset=UTF-8");
+    WORD("application/msword; charset=UTF-8", true),
+    EXCEL("application/x-xls; charset=UTF-8", true),
+    PDF("application/pdf; charset=UTF-8", false),
+    ZIP("application/zip; charset=UTF-8", false),
+    DOWNLOAD("application/octet-stream; charset=UTF-8", false);
 
     String miniType;
+    /**
+     * false for content that is already compressed, or opaque binary that rarely shrinks
+     */
+    boolean compressible;
 
-    FileType(String miniType) {
+    FileType(String miniType, boolean compressible) {
         this.miniType = miniType;
+        this.compressible = compressible;
     }
 
     public String getMiniType() {
         return miniType;
     }
+
+    public boolean isCompressible() {
+        return compressible;
+    }
+
+    /**
+     * the file type of a content type, parameters such as charset are ignored
+     *
+     * @return null when no file type matches
+     */
+    public static FileType of(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String mediaType = mediaType(contentType);
+        for (FileType fileType : values()) {
+            if (mediaType(fileType.miniType).equals(mediaType)) {
+                return fileType;
+            }
+        }
+        return null;
+    }
+
+    private static String mediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim().toLowerCase();
+    }
 }
@@ -0,0 +1,76 @@
+package com.fsolsh.aws.metrics;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * instrumentation sink for the aws services, operations are recorded once per public call,
+ * attempts and bytes once per http round trip by {@link MetricsExecutionInterceptor}
+ */
+public interface AWSMetrics {
+
+    /**
+     * used when micrometer is not on the classpath, records nothing
+     */
+    AWSMetrics NOOP = new AWSMetrics() {
+        @Override
+        public void recordOperation(String service, String operation, long durationNanos, Outcome outcome) {
+        }
+
+        @Override
+        public void recordAttempt(String service, String operation, int attempt, long durationNanos, Outcome outcome) {
+        }
+
+        @Override
+        public void recordBytes(String service, String operation, Direction direction, long bytes) {
+        }
+    };
+
+    void recordOperation(String service, String operation, long durationNanos, Outcome outcome);
+
+    /**
+     * @param attempt 1 for the first try, anything above is a retry
+     */
+    void recordAttempt(String service, String operation, int attempt, long durationNanos, Outcome outcome);
+
+    void recordBytes(String service, String operation, Direction direction, long bytes);
+
+    /**
+     * time a blocking call, the outcome is taken from the exception it throws, if any
+     */
+    default <T, E1 extends Exception, E2 extends Exception> T record(String service, String operation, Call<T, E1, E2> call) throws E1, E2 {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            recordOperation(service, operation, System.nanoTime() - start, Outcome.SUCCESS);
+            return result;
+        } catch (Throwable e) {
+            recordOperation(service, operation, System.nanoTime() - start, Outcome.of(e));
+            throw e;
+        }
+    }
+
+    /**
+     * time a call that returns a future, recorded when the future completes
+     */
+    default <T, E1 extends Exception, E2 extends Exception> CompletableFuture<T> recordAsync(String service, String operation, Call<CompletableFuture<T>, E1, E2> call) throws E1, E2 {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.call();
+        } catch (Throwable e) {
+            recordOperation(service, operation, System.nanoTime() - start, Outcome.of(e));
+            throw e;
+        }
+        future.whenComplete((result, e) -> recordOperation(service, operation, System.nanoTime() - start, Outcome.of(e)));
+        return future;
+    }
+
+    @FunctionalInterface
+    interface Call<T, E1 extends Exception, E2 extends Exception> {
+        T call() throws E1, E2;
+    }
+
+    enum Direction {
+        SENT, RECEIVED
+    }
+}
@@ -0,0 +1,88 @@
+package com.fsolsh.aws.metrics;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.SdkHttpHeaders;
+
+/**
+ * sees every http attempt the sdk makes, including its own retries, and records the attempt latency,
+ * its outcome and the bytes on the wire, an attempt that never got a response is closed as a failure
+ * when the next attempt starts or the execution fails
+ */
+public class MetricsExecutionInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Attempt> ATTEMPT = new ExecutionAttribute<>("AwsMetricsAttempt");
+
+    private final AWSMetrics metrics;
+
+    public MetricsExecutionInterceptor(AWSMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        Attempt previous = executionAttributes.getAttribute(ATTEMPT);
+        if (previous != null) {
+            previous.close(executionAttributes, Outcome.FAILURE);
+        }
+        executionAttributes.putAttribute(ATTEMPT, new Attempt(previous == null ? 1 : previous.number + 1));
+        recordBytes(executionAttributes, AWSMetrics.Direction.SENT, context.httpRequest());
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        Attempt attempt = executionAttributes.getAttribute(ATTEMPT);
+        if (attempt != null) {
+            attempt.close(executionAttributes, Outcome.ofStatusCode(context.httpResponse().statusCode()));
+        }
+        recordBytes(executionAttributes, AWSMetrics.Direction.RECEIVED, context.httpResponse());
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        Attempt attempt = executionAttributes.getAttribute(ATTEMPT);
+        if (attempt != null) {
+            attempt.close(executionAttributes, Outcome.of(context.exception()));
+        }
+    }
+
+    private void recordBytes(ExecutionAttributes executionAttributes, AWSMetrics.Direction direction, SdkHttpHeaders headers) {
+        headers.firstMatchingHeader("Content-Length").ifPresent(length -> {
+            try {
+                metrics.recordBytes(service(executionAttributes), operation(executionAttributes), direction, Long.parseLong(length));
+            } catch (NumberFormatException ignored) {
+                // a malformed header is not worth failing the request for
+            }
+        });
+    }
+
+    private static String service(ExecutionAttributes executionAttributes) {
+        String service = executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME);
+        return service != null ? service.toLowerCase() : "unknown";
+    }
+
+    private static String operation(ExecutionAttributes executionAttributes) {
+        String operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        return operation != null ? operation : "unknown";
+    }
+
+    private class Attempt {
+        private final int number;
+        private final long start = System.nanoTime();
+        private boolean closed;
+
+        private Attempt(int number) {
+            this.number = number;
+        }
+
+        private void close(ExecutionAttributes executionAttributes, Outcome outcome) {
+            if (!closed) {
+                closed = true;
+                metrics.recordAttempt(service(executionAttributes), operation(executionAttributes), number, System.nanoTime() - start, outcome);
+            }
+        }
+    }
+}
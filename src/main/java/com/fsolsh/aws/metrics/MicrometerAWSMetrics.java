@@ -0,0 +1,59 @@
+package com.fsolsh.aws.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * micrometer backed metrics, only loaded when micrometer is on the classpath
+ * <ul>
+ * <li>aws.operation : timer per public call, tagged service, operation and outcome</li>
+ * <li>aws.attempt : timer per http attempt, same tags</li>
+ * <li>aws.retries : counter of attempts after the first</li>
+ * <li>aws.bytes : summary of content bytes, tagged service, operation and direction</li>
+ * </ul>
+ */
+public class MicrometerAWSMetrics implements AWSMetrics {
+
+    private final MeterRegistry registry;
+
+    public MicrometerAWSMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordOperation(String service, String operation, long durationNanos, Outcome outcome) {
+        Timer.builder("aws.operation")
+                .tags("service", service, "operation", operation, "outcome", outcome.tag())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordAttempt(String service, String operation, int attempt, long durationNanos, Outcome outcome) {
+        Timer.builder("aws.attempt")
+                .tags("service", service, "operation", operation, "outcome", outcome.tag())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        if (attempt > 1) {
+            Counter.builder("aws.retries")
+                    .tags("service", service, "operation", operation)
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    @Override
+    public void recordBytes(String service, String operation, Direction direction, long bytes) {
+        DistributionSummary.builder("aws.bytes")
+                .baseUnit("bytes")
+                .tags("service", service, "operation", operation, "direction", direction.name().toLowerCase())
+                .register(registry)
+                .record(bytes);
+    }
+}
@@ -0,0 +1,37 @@
+package com.fsolsh.aws.metrics;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * result of an operation or attempt, throttling is kept apart from other failures
+ */
+public enum Outcome {
+    SUCCESS, FAILURE, THROTTLED;
+
+    public static Outcome of(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e == null) {
+            return SUCCESS;
+        }
+        return e instanceof SdkServiceException && ((SdkServiceException) e).isThrottlingException() ? THROTTLED : FAILURE;
+    }
+
+    /**
+     * per attempt only the status code is known, 429 and 503 are what s3 and sns answer when throttling
+     */
+    public static Outcome ofStatusCode(int statusCode) {
+        if (statusCode >= 200 && statusCode < 300) {
+            return SUCCESS;
+        }
+        return statusCode == 429 || statusCode == 503 ? THROTTLED : FAILURE;
+    }
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,256 @@
+package com.fsolsh.aws.outbox;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.fsolsh.aws.config.AWSProperties;
+import com.fsolsh.aws.support.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * durable send queue, a message is acknowledged once it is in the local log, a single drainer thread
+ * reads it in batches whose messages are delivered concurrently on up to concurrency threads, the offset
+ * is committed once the whole batch is done, whatever was not committed is replayed on the next start,
+ * so delivery is at least once and messages of one batch may arrive out of order
+ * <p>
+ * throttling, 5xx and network errors are retried with backoff, a message that fails for any other reason
+ * or runs out of retries is written to dead-letter.jsonl next to the log and skipped, a record that fails its
+ * checksum is dead-lettered by offset and the rest of its segment is skipped
+ */
+@Slf4j
+public class Outbox implements AutoCloseable {
+
+    private static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+    private static final long IDLE_WAIT_MILLIS = 1000;
+
+    private final String name;
+    private final OutboxLog journal;
+    private final Delivery delivery;
+    private final int batchSize;
+    private final int maxRetries;
+    private final ExecutorService deliverers;
+    private final Thread drainer;
+    private final Object signal = new Object();
+    private volatile boolean running = true;
+
+    public Outbox(String name, OutboxLog journal, Delivery delivery, int batchSize, int concurrency, int maxRetries) {
+        this.name = name;
+        this.journal = journal;
+        this.delivery = delivery;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRetries = Math.max(1, maxRetries);
+        this.deliverers = Executors.newFixedThreadPool(Math.max(1, concurrency), new NamedThreadFactory("aws-" + name + "-outbox-delivery"));
+        this.drainer = new NamedThreadFactory("aws-" + name + "-outbox").newThread(this::drain);
+        this.drainer.start();
+    }
+
+    /**
+     * open the outbox of a service under outbox_dir, replaying what is left from the last run
+     *
+     * @param concurrency deliveries in flight, the worker count of the service's own sender
+     */
+    public static Outbox open(String name, AWSProperties properties, int concurrency, Delivery delivery) throws IOException {
+        Path directory = Paths.get(properties.getOutbox_dir(), name);
+        OutboxLog journal = new OutboxLog(directory, properties.getOutbox_segment_size(), properties.isOutbox_sync_on_append());
+        return new Outbox(name, journal, delivery, properties.getOutbox_batch_size(), concurrency, properties.getOutbox_max_retries());
+    }
+
+    /**
+     * @return the log offset of the message
+     */
+    public long append(OutboxMessage message) throws IOException {
+        if (!running) {
+            throw new IllegalStateException("aws-" + name + " outbox is closed");
+        }
+        long offset = journal.append(JSON.toJSONBytes(message));
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        return offset;
+    }
+
+    public long getPendingBytes() {
+        return journal.getPendingBytes();
+    }
+
+    private void drain() {
+        long offset = journal.getCommittedOffset();
+        while (running) {
+            long end = journal.getEndOffset();
+            List<OutboxLog.Record> batch;
+            try {
+                batch = journal.read(offset, batchSize);
+            } catch (RuntimeException e) {
+                try {
+                    offset = skip(offset, e);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            if (batch.isEmpty()) {
+                synchronized (signal) {
+                    // appends notify under this lock, an unchanged end offset means none came in since the read
+                    if (running && journal.getEndOffset() == end) {
+                        try {
+                            signal.wait(IDLE_WAIT_MILLIS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                continue;
+            }
+            List<Future<Boolean>> deliveries = new ArrayList<>(batch.size());
+            for (OutboxLog.Record record : batch) {
+                deliveries.add(deliverers.submit(() -> deliver(record)));
+            }
+            // every delivery is awaited, the commit covers the records up to the first one left for the next start
+            long delivered = offset;
+            boolean complete = true;
+            for (int i = 0; i < batch.size(); i++) {
+                boolean done;
+                try {
+                    done = deliveries.get(i).get();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    log.error("aws-{} outbox delivery error at offset : {}", name, batch.get(i).getOffset(), e.getCause());
+                    done = false;
+                }
+                complete &= done;
+                if (complete) {
+                    delivered = batch.get(i).getNextOffset();
+                }
+            }
+            if (delivered != offset) {
+                journal.commit(delivered);
+                offset = delivered;
+            }
+        }
+    }
+
+    /**
+     * give up an unreadable record and the rest of its segment, retrying it would only fail again
+     *
+     * @return the offset to read on from
+     */
+    private long skip(long offset, RuntimeException cause) throws InterruptedException {
+        long next;
+        try {
+            next = journal.skipSegment(offset);
+        } catch (IOException e) {
+            log.error("aws-{} outbox can not skip the unreadable record at offset : {}", name, offset, e);
+            Thread.sleep(IDLE_WAIT_MILLIS);
+            return offset;
+        }
+        deadLetter(offset, null, null, new IllegalStateException(cause.getMessage() + ", skipped to offset " + next, cause));
+        journal.commit(next);
+        return next;
+    }
+
+    /**
+     * @return false when the outbox is closing and the record stays for the next start
+     */
+    private boolean deliver(OutboxLog.Record record) {
+        OutboxMessage message;
+        try {
+            message = JSON.parseObject(record.getPayload(), OutboxMessage.class);
+        } catch (RuntimeException e) {
+            deadLetter(record.getOffset(), record.getPayload(), null, e);
+            return true;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                delivery.deliver(message);
+                return true;
+            } catch (RuntimeException e) {
+                if (!isRetryable(e) || attempt >= maxRetries) {
+                    deadLetter(record.getOffset(), record.getPayload(), message, e);
+                    return true;
+                }
+                log.warn("aws-{} outbox delivery to : {} failed, attempt : {}, cause : {}", name, message.getRecipient(), attempt, e.getMessage());
+            }
+            if (!running) {
+                return false;
+            }
+            try {
+                long cap = Math.min(30_000L, 200L << Math.min(attempt, 10));
+                Thread.sleep(ThreadLocalRandom.current().nextLong(cap / 2, cap + 1));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    private static boolean isRetryable(RuntimeException e) {
+        if (e instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.isThrottlingException() || serviceException.statusCode() >= 500;
+        }
+        return e instanceof SdkClientException;
+    }
+
+    /**
+     * called from the delivery threads, one line at a time, an unreadable record has no payload
+     */
+    private synchronized void deadLetter(long offset, byte[] payload, OutboxMessage message, RuntimeException cause) {
+        log.error("aws-{} outbox gave up on record at offset : {}, to : {}", name, offset, message != null ? message.getRecipient() : null, cause);
+        JSONObject line = new JSONObject();
+        line.put("offset", offset);
+        line.put("message", payload != null ? new String(payload, StandardCharsets.UTF_8) : null);
+        line.put("error", String.valueOf(cause.getMessage()));
+        try {
+            Files.write(journal.getDirectory().resolve(DEAD_LETTER_FILE), (line.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.error("aws-{} outbox dead-letter write error", name, e);
+        }
+    }
+
+    /**
+     * stop accepting messages and let the drainer finish its current batch for up to 30 seconds,
+     * whatever is left is delivered after the next start
+     */
+    @Override
+    public void close() {
+        running = false;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        try {
+            drainer.join(30_000);
+            if (drainer.isAlive()) {
+                drainer.interrupt();
+                drainer.join(5_000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deliverers.shutdownNow();
+        journal.close();
+    }
+
+    /**
+     * sends one message, throws on failure
+     */
+    @FunctionalInterface
+    public interface Delivery {
+        void deliver(OutboxMessage message);
+    }
+}
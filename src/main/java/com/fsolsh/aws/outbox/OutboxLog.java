@@ -0,0 +1,369 @@
+package com.fsolsh.aws.outbox;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * append-only record log on memory-mapped segment files, a record is [length][crc32][payload] and its length
+ * is written last, so a record torn by a crash reads as the end of the log, offsets are logical and keep growing
+ * across segments, the committed offset lives in its own small mapped file and segments below it are deleted
+ * <p>
+ * mapped writes survive a jvm crash as they sit in the page cache, syncOnAppend also forces them to disk
+ * for power loss, at the cost of an fsync per append
+ * <p>
+ * one log has one writer, a second process or a second log in this jvm on the same directory fails to open
+ */
+@Slf4j
+public class OutboxLog implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMMITTED_FILE = "committed.offset";
+    private static final String LOCK_FILE = "outbox.lock";
+
+    @Getter
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncOnAppend;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final FileChannel lockChannel;
+    private final FileChannel committedChannel;
+    private final MappedByteBuffer committedBuffer;
+    private Segment active;
+    @Getter
+    private volatile long endOffset;
+    @Getter
+    private volatile long committedOffset;
+
+    public OutboxLog(Path directory, int segmentSize, boolean syncOnAppend) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncOnAppend = syncOnAppend;
+        Files.createDirectories(directory);
+        this.lockChannel = lock(directory);
+
+        try {
+            this.committedChannel = FileChannel.open(directory.resolve(COMMITTED_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.committedBuffer = committedChannel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+            this.committedOffset = readCommittedOffset();
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(base, Segment.open(file, base, segmentSize));
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.put(committedOffset, Segment.create(segmentPath(committedOffset), committedOffset, segmentSize));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.committedOffset = Math.max(committedOffset, segments.firstKey());
+        this.active = segments.lastEntry().getValue();
+        this.endOffset = active.base + active.end;
+        log.info("aws outbox {} opened, committed offset : {}, end offset : {}, segments : {}", directory, committedOffset, endOffset, segments.size());
+    }
+
+    /**
+     * @return the offset of the record
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("outbox record of " + payload.length + " bytes exceeds the segment size " + segmentSize);
+        }
+        if (active.end + size > segmentSize) {
+            long base = active.base + active.end;
+            active = Segment.create(segmentPath(base), base, segmentSize);
+            segments.put(base, active);
+        }
+        long offset = active.base + active.end;
+        active.write(payload, syncOnAppend);
+        endOffset = active.base + active.end;
+        return offset;
+    }
+
+    /**
+     * records from the offset on, the offset must be a record boundary such as the committed offset
+     * or the next offset of a record read before, the records before one that fails its checksum are returned,
+     * reading that record itself throws IllegalStateException
+     */
+    public List<Record> read(long offset, int maxRecords) {
+        List<Record> records = new ArrayList<>();
+        long end = endOffset;
+        while (records.size() < maxRecords && offset < end) {
+            Segment segment;
+            Long next;
+            synchronized (this) {
+                Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+                if (entry == null) {
+                    offset = segments.firstKey();
+                    continue;
+                }
+                segment = entry.getValue();
+                next = segments.higherKey(segment.base);
+            }
+            int position = (int) (offset - segment.base);
+            if (position >= segment.end) {
+                if (next == null) {
+                    break;
+                }
+                offset = next;
+                continue;
+            }
+            Record record;
+            try {
+                record = segment.read(position);
+            } catch (RuntimeException e) {
+                if (records.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+            records.add(record);
+            offset = record.nextOffset;
+        }
+        return records;
+    }
+
+    /**
+     * where reading resumes past a record that fails its checksum, its length can not be trusted, so the rest of its
+     * segment is given up, the active segment is rolled over first so new records are not written behind it
+     */
+    public synchronized long skipSegment(long offset) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+        Long next = entry != null ? segments.higherKey(entry.getKey()) : null;
+        if (next != null) {
+            return next;
+        }
+        long base = active.base + active.end;
+        if (base > offset) {
+            active = Segment.create(segmentPath(base), base, segmentSize);
+            segments.put(base, active);
+        }
+        return base;
+    }
+
+    /**
+     * everything below the offset is done, whole segments below it are deleted
+     */
+    public synchronized void commit(long offset) {
+        committedBuffer.putLong(0, offset);
+        committedBuffer.putLong(8, checksum(offset));
+        if (syncOnAppend) {
+            committedBuffer.force();
+        }
+        committedOffset = offset;
+
+        while (segments.size() > 1) {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            Long next = segments.higherKey(first.getKey());
+            if (next > offset) {
+                break;
+            }
+            segments.remove(first.getKey());
+            first.getValue().delete();
+        }
+    }
+
+    /**
+     * bytes appended but not committed yet
+     */
+    public long getPendingBytes() {
+        return endOffset - committedOffset;
+    }
+
+    /**
+     * the lock is held until close, the os drops it when the process dies, so a crash leaves nothing to clean up
+     */
+    private static FileChannel lock(Path directory) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("aws outbox " + directory + " is in use by another writer");
+        }
+        return channel;
+    }
+
+    private long readCommittedOffset() {
+        long offset = committedBuffer.getLong(0);
+        if (committedBuffer.getLong(8) != checksum(offset)) {
+            // never committed, or torn by a crash, replaying from the first segment only costs duplicates
+            return 0;
+        }
+        return offset;
+    }
+
+    /**
+     * never zero, so a fresh all-zero file does not pass as committed offset 0
+     */
+    private static long checksum(long offset) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, offset));
+        return crc.getValue() | 1L << 32;
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        try {
+            // null only when the constructor failed half way
+            if (committedBuffer != null) {
+                committedBuffer.force();
+            }
+            if (committedChannel != null) {
+                committedChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("aws outbox close error : {}", e.getMessage());
+        }
+        try {
+            // closing the channel releases the lock
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("aws outbox lock release error : {}", e.getMessage());
+        }
+    }
+
+    @Getter
+    public static class Record {
+        private final long offset;
+        private final long nextOffset;
+        private final byte[] payload;
+
+        private Record(long offset, long nextOffset, byte[] payload) {
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.payload = payload;
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final long base;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private volatile int end;
+
+        private Segment(Path path, long base, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.base = base;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path path, long base, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, base, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        /**
+         * scan for the first record that is missing or fails its checksum, that is where the segment ends
+         */
+        private static Segment open(Path path, long base, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, base, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size())));
+            int position = 0;
+            int capacity = segment.buffer.capacity();
+            while (position + HEADER_SIZE <= capacity) {
+                int length = segment.buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > capacity || segment.crc(position, length) != segment.buffer.getInt(position + 4)) {
+                    break;
+                }
+                position += HEADER_SIZE + length;
+            }
+            if (position + HEADER_SIZE <= capacity && segment.buffer.getInt(position) != 0) {
+                log.warn("aws outbox segment {} has a torn record at {}, the rest is dropped", path, position);
+                segment.buffer.putInt(position, 0);
+            }
+            segment.end = position;
+            return segment;
+        }
+
+        private void write(byte[] payload, boolean force) {
+            int position = end;
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_SIZE);
+            view.put(payload);
+            buffer.putInt(position + 4, crc(position, payload.length));
+            buffer.putInt(position, payload.length);
+            if (force) {
+                buffer.force();
+            }
+            end = position + HEADER_SIZE + payload.length;
+        }
+
+        private Record read(int position) {
+            int length = buffer.getInt(position);
+            if (crc(position, length) != buffer.getInt(position + 4)) {
+                throw new IllegalStateException("aws outbox record at " + (base + position) + " in " + path + " fails its checksum");
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_SIZE);
+            view.get(payload);
+            return new Record(base + position, base + position + HEADER_SIZE + length, payload);
+        }
+
+        private int crc(int position, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_SIZE).limit(position + HEADER_SIZE + length);
+            CRC32 crc = new CRC32();
+            crc.update(view);
+            return (int) crc.getValue();
+        }
+
+        private void close() {
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("aws outbox segment {} close error : {}", path, e.getMessage());
+            }
+        }
+
+        /**
+         * the mapping is released by gc, on linux the file can go right away
+         */
+        private void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("aws outbox segment {} delete error : {}", path, e.getMessage());
+            }
+        }
+    }
+}
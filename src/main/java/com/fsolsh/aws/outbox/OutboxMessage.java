@@ -0,0 +1,44 @@
+package com.fsolsh.aws.outbox;
+
+import lombok.Data;
+
+/**
+ * one send kept in the outbox, stored as json
+ */
+@Data
+public class OutboxMessage {
+
+    private Type type;
+    private String sender;
+    private String recipient;
+    private String subject;
+    private String body;
+    private long createdAt;
+
+    public static OutboxMessage textMail(String sender, String recipient, String subject, String bodyText) {
+        return of(Type.TEXT_MAIL, sender, recipient, subject, bodyText);
+    }
+
+    public static OutboxMessage htmlMail(String sender, String recipient, String subject, String bodyHTML) {
+        return of(Type.HTML_MAIL, sender, recipient, subject, bodyHTML);
+    }
+
+    public static OutboxMessage sms(String phoneNumber, String message) {
+        return of(Type.SMS, null, phoneNumber, null, message);
+    }
+
+    private static OutboxMessage of(Type type, String sender, String recipient, String subject, String body) {
+        OutboxMessage message = new OutboxMessage();
+        message.type = type;
+        message.sender = sender;
+        message.recipient = recipient;
+        message.subject = subject;
+        message.body = body;
+        message.createdAt = System.currentTimeMillis();
+        return message;
+    }
+
+    public enum Type {
+        TEXT_MAIL, HTML_MAIL, SMS
+    }
+}
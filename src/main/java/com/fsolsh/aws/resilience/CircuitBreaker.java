@@ -0,0 +1,93 @@
+package com.fsolsh.aws.resilience;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * breaker of one service endpoint, it opens after failureThreshold calls in a row failed, fails every call fast
+ * while open, and after openDuration lets one probe through, the probe closes it again or keeps it open
+ * <p>
+ * only failures that say the endpoint is unhealthy count, timeouts, connection errors, 5xx and throttling,
+ * a 4xx is the caller's problem and counts as a success
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt;
+    private long rejected;
+
+    public CircuitBreaker(String name, int failureThreshold, long openNanos) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * @return false when the call must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < openNanos) {
+                    rejected++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                log.info("aws circuit breaker {} half-open, probing", name);
+                return true;
+            default:
+                // a probe that never reported back does not keep the breaker half-open forever
+                if (now - probeStartedAt < openNanos) {
+                    rejected++;
+                    return false;
+                }
+                probeStartedAt = now;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            log.info("aws circuit breaker {} closed", name);
+        }
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            log.warn("aws circuit breaker {} open after {} failed calls, failing fast for {} ms", name, consecutiveFailures, openNanos / 1_000_000);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * calls failed fast since the breaker was created
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fsolsh.aws.resilience;
+
+import software.amazon.awssdk.awscore.AwsExecutionAttribute;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * guards every call with the breaker of its service and region, a call is counted once after the sdk's own
+ * retries, so the breaker opens on endpoints that keep failing rather than on single bad attempts
+ */
+public class CircuitBreakerExecutionInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<CircuitBreaker> BREAKER = new ExecutionAttribute<>("AwsCircuitBreaker");
+
+    private final CircuitBreakers breakers;
+
+    public CircuitBreakerExecutionInterceptor(CircuitBreakers breakers) {
+        this.breakers = breakers;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        String service = executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME);
+        Region region = executionAttributes.getAttribute(AwsExecutionAttribute.AWS_REGION);
+        CircuitBreaker breaker = breakers.get(service != null ? service.toLowerCase() : "unknown", region != null ? region.id() : "global");
+        if (!breaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException(breaker.getName());
+        }
+        executionAttributes.putAttribute(BREAKER, breaker);
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        CircuitBreaker breaker = executionAttributes.getAttribute(BREAKER);
+        if (breaker != null) {
+            breaker.onSuccess();
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        CircuitBreaker breaker = executionAttributes.getAttribute(BREAKER);
+        if (breaker == null) {
+            return;
+        }
+        if (isUnhealthy(context.exception())) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    /**
+     * failures that point at the endpoint rather than the request
+     */
+    static boolean isUnhealthy(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof CircuitBreakerOpenException || e instanceof AbortedException) {
+            return false;
+        }
+        if (e instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.statusCode() >= 500 || serviceException.isThrottlingException();
+        }
+        return e instanceof SdkClientException;
+    }
+}
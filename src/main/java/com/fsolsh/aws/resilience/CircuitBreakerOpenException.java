@@ -0,0 +1,27 @@
+package com.fsolsh.aws.resilience;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+/**
+ * thrown instead of sending a request while the endpoint's breaker is open, never retried by the sdk
+ */
+public class CircuitBreakerOpenException extends SdkClientException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String breaker;
+
+    public CircuitBreakerOpenException(String breaker) {
+        super(SdkClientException.builder().message("aws circuit breaker " + breaker + " is open"));
+        this.breaker = breaker;
+    }
+
+    public String getBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public boolean retryable() {
+        return false;
+    }
+}
@@ -0,0 +1,30 @@
+package com.fsolsh.aws.resilience;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * one breaker per service and region, e.g. {@code email/us-east-1}, shared by every client of that endpoint
+ */
+public class CircuitBreakers {
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakers(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    public CircuitBreaker get(String service, String region) {
+        return breakers.computeIfAbsent(service + "/" + region, name -> new CircuitBreaker(name, failureThreshold, openNanos));
+    }
+
+    public Collection<CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableCollection(breakers.values());
+    }
+}
@@ -0,0 +1,374 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.support.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * server-side bulk copy and move, no object content passes through this host
+ * <ul>
+ * <li>the source prefix is listed lazily and a bounded worker pool copies the objects</li>
+ * <li>objects below the part size are copied with one CopyObject, larger ones as a multipart upload whose
+ * UploadPartCopy ranges run in parallel on the transfer threads</li>
+ * <li>every request is conditional on the listed etag, an object that changes during the copy fails instead of
+ * being copied torn</li>
+ * <li>a move deletes the sources in 1000-key batches once their copies exist</li>
+ * </ul>
+ * an object that fails is reported and the copy goes on with the others
+ */
+@Slf4j
+public class S3BulkCopier {
+
+    private static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10000;
+
+    private final S3Client s3;
+    private final S3ObjectLister objectLister;
+    private final S3BulkDeleter bulkDeleter;
+    private final ExecutorService partExecutor;
+    private final long partSize;
+    private final int partRetries;
+    private final int concurrency;
+    private final BiConsumer<String, String> copiedListener;
+
+    public S3BulkCopier(S3Client s3, S3ObjectLister objectLister, S3BulkDeleter bulkDeleter, ExecutorService partExecutor, long partSize, int partRetries, int concurrency) {
+        this(s3, objectLister, bulkDeleter, partExecutor, partSize, partRetries, concurrency, (bucketName, objectKey) -> {
+        });
+    }
+
+    /**
+     * @param copiedListener called with bucket and key of every target written, from the copy threads
+     */
+    public S3BulkCopier(S3Client s3, S3ObjectLister objectLister, S3BulkDeleter bulkDeleter, ExecutorService partExecutor, long partSize, int partRetries, int concurrency,
+                        BiConsumer<String, String> copiedListener) {
+        this.s3 = s3;
+        this.objectLister = objectLister;
+        this.bulkDeleter = bulkDeleter;
+        this.partExecutor = partExecutor;
+        this.partSize = Math.min(MAX_COPY_SIZE, Math.max(MIN_PART_SIZE, partSize));
+        this.partRetries = Math.max(1, partRetries);
+        this.concurrency = concurrency;
+        this.copiedListener = copiedListener;
+    }
+
+    public S3CopyResult copy(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix, S3CopyOptions options) throws IOException {
+        return run(sourceBucket, sourcePrefix, targetBucket, targetPrefix, options, false);
+    }
+
+    public S3CopyResult move(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix, S3CopyOptions options) throws IOException {
+        return run(sourceBucket, sourcePrefix, targetBucket, targetPrefix, options, true);
+    }
+
+    private S3CopyResult run(String sourceBucket, String sourcePrefix, String targetBucket, String targetPrefix, S3CopyOptions options, boolean move) throws IOException {
+        String fromPrefix = Objects.toString(sourcePrefix, "");
+        String toPrefix = Objects.toString(targetPrefix, "");
+        Function<String, String> keyMapper = options.getKeyMapper() != null ? options.getKeyMapper() : Function.identity();
+        if (sourceBucket.equals(targetBucket) && toPrefix.startsWith(fromPrefix)) {
+            // copies inside the listed prefix would be listed again, whatever the key mapper makes of their names
+            if (!toPrefix.equals(fromPrefix) || options.getKeyMapper() != null) {
+                throw new IllegalArgumentException("target prefix " + toPrefix + " lies inside source prefix " + fromPrefix);
+            }
+            if (move) {
+                throw new IllegalArgumentException("can not move " + sourceBucket + "/" + fromPrefix + " onto itself");
+            }
+            // only a copy replacing acl, metadata or content type may rewrite the objects in place
+            if (options.getAcl() == null && options.getMetadata() == null && options.getContentType() == null) {
+                throw new IllegalArgumentException("copying " + sourceBucket + "/" + fromPrefix + " onto itself changes nothing");
+            }
+        }
+
+        String job = (move ? "move" : "copy") + '\t' + sourceBucket + '\t' + fromPrefix + '\t' + targetBucket + '\t' + toPrefix;
+        S3CopyCheckpoint checkpoint = new S3CopyCheckpoint(options.getCheckpointFile(), job);
+        Run run = new Run(sourceBucket, targetBucket, options, checkpoint, move);
+        int workers = Math.max(1, options.getConcurrency() > 0 ? options.getConcurrency() : concurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("aws-s3-copy"));
+        Semaphore inFlight = new Semaphore(workers);
+        boolean finished = false;
+        try (Stream<S3Object> objects = objectLister.list(sourceBucket, fromPrefix)) {
+            for (S3Object source : (Iterable<S3Object>) objects::iterator) {
+                String mapped = keyMapper.apply(source.key().substring(fromPrefix.length()));
+                if (mapped == null) {
+                    run.skipped.incrementAndGet();
+                    continue;
+                }
+                String targetKey = toPrefix + mapped;
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            run.copy(source, targetKey);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                if (move && run.copiedSources.size() >= S3BulkDeleter.MAX_KEYS_PER_REQUEST) {
+                    run.deleteSources();
+                }
+            }
+            inFlight.acquire(workers);
+            if (move) {
+                run.deleteSources();
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("bulk copy interrupted", e);
+        } finally {
+            executor.shutdownNow();
+            checkpoint.close(finished && run.errors.isEmpty());
+        }
+
+        S3CopyResult result = new S3CopyResult(run.copied.get(), run.skipped.get(), run.deleted.get(), run.bytesCopied.get(), new ArrayList<>(run.errors));
+        log.info("{}Objects finished, source : {}/{}, target : {}/{}, copied : {}, skipped : {}, deleted : {}, failed : {}", move ? "move" : "copy",
+                sourceBucket, fromPrefix, targetBucket, toPrefix, result.getCopied(), result.getSkipped(), result.getDeleted(), result.getErrors().size());
+        return result;
+    }
+
+    /**
+     * state of one bulk copy, shared by its workers
+     */
+    private class Run {
+        private final String sourceBucket;
+        private final String targetBucket;
+        private final S3CopyOptions options;
+        private final S3CopyCheckpoint checkpoint;
+        private final boolean move;
+        private final AtomicLong copied = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong bytesCopied = new AtomicLong();
+        private final ConcurrentLinkedQueue<S3Error> errors = new ConcurrentLinkedQueue<>();
+        private final BlockingQueue<String> copiedSources = new LinkedBlockingQueue<>();
+
+        private Run(String sourceBucket, String targetBucket, S3CopyOptions options, S3CopyCheckpoint checkpoint, boolean move) {
+            this.sourceBucket = sourceBucket;
+            this.targetBucket = targetBucket;
+            this.options = options;
+            this.checkpoint = checkpoint;
+            this.move = move;
+        }
+
+        private void copy(S3Object source, String targetKey) {
+            if (move && sourceBucket.equals(targetBucket) && targetKey.equals(source.key())) {
+                errors.add(S3Error.builder().key(source.key()).code("InvalidRequest").message("can not move an object onto itself").build());
+                return;
+            }
+            if (checkpoint.contains(source.key())) {
+                skipped.incrementAndGet();
+            } else {
+                try {
+                    copyObject(source, targetKey);
+                } catch (RuntimeException e) {
+                    log.warn("copyObjects error, source : {}/{}, target : {}/{}, cause : {}", sourceBucket, source.key(), targetBucket, targetKey, e.getMessage());
+                    String code = e instanceof SdkException ? S3BulkDeleter.errorCode((SdkException) e) : e.getClass().getSimpleName();
+                    errors.add(S3Error.builder().key(source.key()).code(code).message(e.getMessage()).build());
+                    return;
+                }
+                copiedListener.accept(targetBucket, targetKey);
+                checkpoint.done(source.key());
+                copied.incrementAndGet();
+                bytesCopied.addAndGet(source.size());
+            }
+            if (move) {
+                copiedSources.add(source.key());
+            }
+        }
+
+        private void copyObject(S3Object source, String targetKey) {
+            boolean inPlace = sourceBucket.equals(targetBucket) && targetKey.equals(source.key());
+            // s3 only copies an object onto itself when something about it is replaced
+            boolean replace = options.getMetadata() != null || options.getContentType() != null || inPlace;
+            boolean multipart = source.size() >= partSize;
+            HeadObjectResponse head = replace || multipart ?
+                    s3.headObject(HeadObjectRequest.builder().bucket(sourceBucket).key(source.key()).ifMatch(source.eTag()).build()) :
+                    null;
+            if (multipart) {
+                copyMultipart(source, targetKey, head);
+                return;
+            }
+            CopyObjectRequest.Builder request = CopyObjectRequest.builder()
+                    .copySource(S3DedupUploader.copySource(sourceBucket, source.key()))
+                    .copySourceIfMatch(source.eTag())
+                    .destinationBucket(targetBucket)
+                    .destinationKey(targetKey)
+                    .acl(options.getAcl())
+                    .storageClass(source.storageClassAsString());
+            if (replace) {
+                request.metadataDirective(MetadataDirective.REPLACE)
+                        .metadata(metadata(head))
+                        .contentType(options.getContentType() != null ? options.getContentType() : head.contentType())
+                        .contentEncoding(head.contentEncoding())
+                        .contentDisposition(head.contentDisposition())
+                        .contentLanguage(head.contentLanguage())
+                        .cacheControl(head.cacheControl())
+                        .expires(head.expires());
+            }
+            s3.copyObject(request.build());
+        }
+
+        /**
+         * the part size grows for objects that would need more than MAX_PARTS parts
+         */
+        private void copyMultipart(S3Object source, String targetKey, HeadObjectResponse head) {
+            long size = source.size();
+            long objectPartSize = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+            CreateMultipartUploadRequest create = CreateMultipartUploadRequest.builder()
+                    .bucket(targetBucket)
+                    .key(targetKey)
+                    .acl(options.getAcl())
+                    .storageClass(source.storageClassAsString())
+                    .metadata(metadata(head))
+                    .contentType(options.getContentType() != null ? options.getContentType() : head.contentType())
+                    .contentEncoding(head.contentEncoding())
+                    .contentDisposition(head.contentDisposition())
+                    .contentLanguage(head.contentLanguage())
+                    .cacheControl(head.cacheControl())
+                    .expires(head.expires())
+                    .build();
+            String uploadId = s3.createMultipartUpload(create).uploadId();
+
+            AtomicBoolean aborted = new AtomicBoolean();
+            List<Future<CompletedPart>> parts = new ArrayList<>();
+            try {
+                int partNumber = 1;
+                for (long offset = 0; offset < size; offset += objectPartSize, partNumber++) {
+                    UploadPartCopyRequest request = UploadPartCopyRequest.builder()
+                            .copySource(S3DedupUploader.copySource(sourceBucket, source.key()))
+                            .copySourceIfMatch(source.eTag())
+                            .copySourceRange("bytes=" + offset + "-" + (Math.min(offset + objectPartSize, size) - 1))
+                            .bucket(targetBucket)
+                            .key(targetKey)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .build();
+                    parts.add(partExecutor.submit(() -> {
+                        if (aborted.get()) {
+                            throw new CancellationException("multipart copy aborted");
+                        }
+                        return copyPart(request);
+                    }));
+                }
+                List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+                for (Future<CompletedPart> part : parts) {
+                    completedParts.add(await(part));
+                }
+                s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(targetBucket)
+                        .key(targetKey)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                        .build());
+            } catch (RuntimeException | Error e) {
+                abort(targetKey, uploadId, parts, aborted);
+                throw e;
+            }
+        }
+
+        /**
+         * a failed part is retried on its own unless s3 refused it, e.g. because the source changed
+         */
+        private CompletedPart copyPart(UploadPartCopyRequest request) throws InterruptedException {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    UploadPartCopyResponse response = s3.uploadPartCopy(request);
+                    return CompletedPart.builder().partNumber(request.partNumber()).eTag(response.copyPartResult().eTag()).build();
+                } catch (SdkException e) {
+                    if (attempt >= partRetries || (e instanceof S3Exception && ((S3Exception) e).statusCode() < 500)) {
+                        throw e;
+                    }
+                    log.warn("uploadPartCopy retry {}/{}, key : {}, part : {}, cause : {}", attempt, partRetries, request.key(), request.partNumber(), e.getMessage());
+                    Thread.sleep(100L << Math.min(attempt, 6));
+                }
+            }
+        }
+
+        /**
+         * queued parts are skipped, the upload is aborted once no part is in flight any more
+         */
+        private void abort(String targetKey, String uploadId, List<Future<CompletedPart>> parts, AtomicBoolean aborted) {
+            aborted.set(true);
+            for (Future<CompletedPart> part : parts) {
+                try {
+                    part.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException | CancellationException ignored) {
+                    // already reported through the failing part
+                }
+            }
+            try {
+                s3.abortMultipartUpload(AbortMultipartUploadRequest.builder().bucket(targetBucket).key(targetKey).uploadId(uploadId).build());
+                log.warn("multipart copy aborted, key : {}, uploadId : {}", targetKey, uploadId);
+            } catch (SdkException e) {
+                log.error("abortMultipartUpload error, key : {}, uploadId : {}", targetKey, uploadId, e);
+            }
+        }
+
+        /**
+         * the metadata given in the options, plus the entries that describe the content, which a copy does not change
+         */
+        private Map<String, String> metadata(HeadObjectResponse head) {
+            if (options.getMetadata() == null) {
+                return head.metadata();
+            }
+            Map<String, String> metadata = new HashMap<>(options.getMetadata());
+            for (String name : new String[]{S3Compression.ORIGINAL_SIZE_METADATA, S3DedupUploader.SHA256_METADATA}) {
+                String value = head.metadata().get(name);
+                if (value != null) {
+                    metadata.putIfAbsent(name, value);
+                }
+            }
+            return metadata;
+        }
+
+        /**
+         * called from the listing thread only, sources are deleted after their copies were recorded
+         */
+        private void deleteSources() {
+            List<String> batch = new ArrayList<>();
+            copiedSources.drainTo(batch);
+            if (batch.isEmpty()) {
+                return;
+            }
+            S3DeleteResult result = bulkDeleter.delete(sourceBucket, batch.iterator());
+            deleted.addAndGet(result.getDeleted());
+            errors.addAll(result.getErrors());
+        }
+    }
+
+    private static CompletedPart await(Future<CompletedPart> part) {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("multipart copy interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.fsolsh.aws.s3;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * bulk delete, keys are packed into 1000-key DeleteObjects calls and several batches run at once,
+ * the key source is consumed lazily so memory stays bounded by the batches in flight, the listener is told
+ * about every key once s3 confirmed its deletion
+ */
+@Slf4j
+public class S3BulkDeleter {
+
+    public static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    private final S3Client s3;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final BiConsumer<String, String> deletedListener;
+
+    public S3BulkDeleter(S3Client s3, ExecutorService executor, int concurrency) {
+        this(s3, executor, concurrency, (bucketName, objectKey) -> {
+        });
+    }
+
+    /**
+     * @param deletedListener called with bucket and key of every deleted object, from the delete threads
+     */
+    public S3BulkDeleter(S3Client s3, ExecutorService executor, int concurrency, BiConsumer<String, String> deletedListener) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.deletedListener = deletedListener;
+    }
+
+    public S3DeleteResult delete(String bucketName, Iterator<String> objectKeys) {
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicLong deleted = new AtomicLong();
+        ConcurrentLinkedQueue<S3Error> errors = new ConcurrentLinkedQueue<>();
+
+        try {
+            while (objectKeys.hasNext()) {
+                List<ObjectIdentifier> batch = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+                while (batch.size() < MAX_KEYS_PER_REQUEST && objectKeys.hasNext()) {
+                    batch.add(ObjectIdentifier.builder().key(objectKeys.next()).build());
+                }
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            deleteBatch(bucketName, batch, deleted, errors);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+            inFlight.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("bulk delete interrupted", e);
+        }
+
+        log.info("deleteObjects finished, bucket : {}, deleted : {}, failed : {}", bucketName, deleted.get(), errors.size());
+        return new S3DeleteResult(deleted.get(), new ArrayList<>(errors));
+    }
+
+    /**
+     * quiet mode, the response only lists the keys that failed
+     */
+    private void deleteBatch(String bucketName, List<ObjectIdentifier> batch, AtomicLong deleted, ConcurrentLinkedQueue<S3Error> errors) {
+        DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(Delete.builder().objects(batch).quiet(true).build())
+                .build();
+        try {
+            DeleteObjectsResponse response = s3.deleteObjects(request);
+            errors.addAll(response.errors());
+            deleted.addAndGet(batch.size() - response.errors().size());
+            Set<String> failed = new HashSet<>();
+            for (S3Error error : response.errors()) {
+                failed.add(error.key());
+            }
+            for (ObjectIdentifier objectIdentifier : batch) {
+                if (!failed.contains(objectIdentifier.key())) {
+                    notifyDeleted(bucketName, objectIdentifier.key());
+                }
+            }
+        } catch (SdkException e) {
+            log.error("deleteObjects batch error, bucket : {}, keys : {}", bucketName, batch.size(), e);
+            String code = errorCode(e);
+            for (ObjectIdentifier objectIdentifier : batch) {
+                errors.add(S3Error.builder().key(objectIdentifier.key()).code(code).message(e.getMessage()).build());
+            }
+        }
+    }
+
+    /**
+     * the object is gone either way, a failing listener is logged and the other keys are still reported
+     */
+    private void notifyDeleted(String bucketName, String objectKey) {
+        try {
+            deletedListener.accept(bucketName, objectKey);
+        } catch (RuntimeException e) {
+            log.error("deleteObjects listener error, bucket : {}, key : {}", bucketName, objectKey, e);
+        }
+    }
+
+    /**
+     * the s3 error code, or the exception name when the call did not get an answer
+     */
+    static String errorCode(SdkException e) {
+        return e instanceof AwsServiceException && ((AwsServiceException) e).awsErrorDetails() != null ?
+                ((AwsServiceException) e).awsErrorDetails().errorCode() :
+                e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,261 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.config.AWSClientFactory;
+import com.fsolsh.aws.config.AWSProfile;
+import com.fsolsh.aws.config.AWSProperties;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.GetBucketLocationRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.utils.StringUtils;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * s3 clients keyed by profile and region, a bucket is served by the profile named for it in s3_bucket_profiles,
+ * or the default s3_* profile, in the bucket's own region
+ * <p>
+ * the region of a bucket comes from s3_bucket_regions, or is looked up once with HeadBucket, which reports it in
+ * x-amz-bucket-region even when it is answered with a redirect or an access denied, GetBucketLocation is the
+ * fallback, the answer is cached for the life of the registry, profiles with an endpoint are never looked up
+ * <p>
+ * a lookup runs on the calling thread outside of any map lock, concurrent callers for the same bucket wait for it,
+ * a failed lookup falls back to the home region of the profile and is only retried after 30 seconds
+ * <p>
+ * clients are built on first use and live until the registry is closed
+ */
+@Slf4j
+public class S3ClientRegistry implements AutoCloseable {
+
+    public static final String DEFAULT_PROFILE = "default";
+    private static final String BUCKET_REGION_HEADER = "x-amz-bucket-region";
+    private static final long FAILED_LOOKUP_RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final AWSClientFactory clientFactory;
+    private final boolean discovery;
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+    private final Map<String, String> bucketProfiles = new ConcurrentHashMap<>();
+    private final Map<String, Region> bucketRegions = new ConcurrentHashMap<>();
+    private final Map<String, Lookup> lookups = new ConcurrentHashMap<>();
+    private final Map<String, S3Client> syncClients = new ConcurrentHashMap<>();
+    private final Map<String, S3AsyncClient> asyncClients = new ConcurrentHashMap<>();
+    private final Map<String, S3Presigner> presigners = new ConcurrentHashMap<>();
+
+    public S3ClientRegistry(AWSProperties properties, AWSClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+        this.discovery = properties.isS3_bucket_region_discovery();
+        profiles.put(DEFAULT_PROFILE, new Profile(DEFAULT_PROFILE, properties.getS3_access_key(), properties.getS3_secret_key(), properties.getS3_region(), properties.getS3_endpoint()));
+        for (Map.Entry<String, AWSProfile> entry : properties.getS3_profiles().entrySet()) {
+            AWSProfile profile = entry.getValue();
+            profiles.put(entry.getKey(), new Profile(entry.getKey(), profile.getAccess_key(), profile.getSecret_key(), profile.getRegion(), profile.getEndpoint()));
+        }
+        for (Map.Entry<String, String> entry : properties.getS3_bucket_profiles().entrySet()) {
+            if (!profiles.containsKey(entry.getValue())) {
+                throw new IllegalArgumentException("s3_bucket_profiles : bucket " + entry.getKey() + " uses unknown profile " + entry.getValue());
+            }
+            bucketProfiles.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : properties.getS3_bucket_regions().entrySet()) {
+            bucketRegions.put(entry.getKey(), Region.of(entry.getValue()));
+        }
+    }
+
+    public S3Client client(String bucketName) {
+        Profile profile = profile(bucketName);
+        Region region = region(profile, bucketName);
+        return syncClients.computeIfAbsent(key(profile, region), key -> clientFactory.syncClient(
+                S3Client.builder().serviceConfiguration(profile.s3Configuration()), region, profile.provider, profile.endpoint));
+    }
+
+    public S3AsyncClient asyncClient(String bucketName) {
+        Profile profile = profile(bucketName);
+        Region region = region(profile, bucketName);
+        return asyncClients.computeIfAbsent(key(profile, region), key -> clientFactory.asyncClient(
+                S3AsyncClient.builder().serviceConfiguration(profile.s3Configuration()), region, profile.provider, profile.endpoint));
+    }
+
+    public S3Presigner presigner(String bucketName) {
+        Profile profile = profile(bucketName);
+        Region region = region(profile, bucketName);
+        return presigners.computeIfAbsent(key(profile, region), key -> clientFactory.s3Presigner(region, profile.provider, profile.endpoint));
+    }
+
+    /**
+     * the base of object urls, the profile's endpoint or the regional s3 endpoint of the bucket
+     */
+    public String domain(String bucketName) {
+        Profile profile = profile(bucketName);
+        if (!StringUtils.isEmpty(profile.endpoint)) {
+            return profile.endpoint.endsWith("/") ? profile.endpoint.substring(0, profile.endpoint.length() - 1) : profile.endpoint;
+        }
+        return "https://s3." + region(profile, bucketName).id() + ".amazonaws.com";
+    }
+
+    public Region bucketRegion(String bucketName) {
+        return region(profile(bucketName), bucketName);
+    }
+
+    /**
+     * learn the region from a redirect that got past the cache, e.g. a bucket created after a failed lookup
+     *
+     * @return true when the request should be sent again
+     */
+    public boolean redirected(String bucketName, S3Exception e) {
+        if (e.statusCode() != 301 && e.statusCode() != 307 && e.statusCode() != 400) {
+            return false;
+        }
+        Optional<String> header = e.awsErrorDetails() != null && e.awsErrorDetails().sdkHttpResponse() != null ?
+                e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader(BUCKET_REGION_HEADER) : Optional.empty();
+        if (!header.isPresent() || !StringUtils.isEmpty(profile(bucketName).endpoint)) {
+            return false;
+        }
+        Region region = Region.of(header.get());
+        Region previous = bucketRegions.put(bucketName, region);
+        lookups.remove(bucketName);
+        log.warn("aws-s3 bucket {} redirected to region {}, was {}", bucketName, region.id(), previous);
+        return !region.equals(previous);
+    }
+
+    private Profile profile(String bucketName) {
+        String name = bucketName != null ? bucketProfiles.getOrDefault(bucketName, DEFAULT_PROFILE) : DEFAULT_PROFILE;
+        return profiles.get(name);
+    }
+
+    /**
+     * the home region of the profile stands in while a failed lookup waits for its retry
+     */
+    private Region region(Profile profile, String bucketName) {
+        if (bucketName == null || !discovery || !StringUtils.isEmpty(profile.endpoint)) {
+            return bucketName != null ? bucketRegions.getOrDefault(bucketName, profile.region) : profile.region;
+        }
+        Region known = bucketRegions.get(bucketName);
+        if (known != null) {
+            return known;
+        }
+        Lookup lookup = lookups.get(bucketName);
+        if (lookup == null || lookup.retryable()) {
+            Lookup fresh = new Lookup();
+            boolean owner = lookup == null ? lookups.putIfAbsent(bucketName, fresh) == null : lookups.replace(bucketName, lookup, fresh);
+            if (owner) {
+                return lookup(profile, bucketName, fresh);
+            }
+            lookup = lookups.get(bucketName);
+            if (lookup == null) {
+                // finished in between
+                return bucketRegions.getOrDefault(bucketName, profile.region);
+            }
+        }
+        Region region = lookup.result.join();
+        return region != null ? region : bucketRegions.getOrDefault(bucketName, profile.region);
+    }
+
+    private Region lookup(Profile profile, String bucketName, Lookup lookup) {
+        Region region = null;
+        try {
+            region = discover(profile, bucketName);
+            if (region != null) {
+                Region redirected = bucketRegions.putIfAbsent(bucketName, region);
+                region = redirected != null ? redirected : region;
+                lookups.remove(bucketName, lookup);
+            }
+        } finally {
+            lookup.complete(region);
+        }
+        return region != null ? region : profile.region;
+    }
+
+    private Region discover(Profile profile, String bucketName) {
+        S3Client client = syncClients.computeIfAbsent(key(profile, profile.region), key -> clientFactory.syncClient(
+                S3Client.builder().serviceConfiguration(profile.s3Configuration()), profile.region, profile.provider, profile.endpoint));
+        SdkHttpResponse response;
+        try {
+            response = client.headBucket(HeadBucketRequest.builder().bucket(bucketName).build()).sdkHttpResponse();
+        } catch (S3Exception e) {
+            response = e.awsErrorDetails() != null ? e.awsErrorDetails().sdkHttpResponse() : null;
+        } catch (SdkException e) {
+            log.warn("aws-s3 bucket {} region lookup failed : {}", bucketName, e.getMessage());
+            return null;
+        }
+        Optional<String> header = response != null ? response.firstMatchingHeader(BUCKET_REGION_HEADER) : Optional.empty();
+        if (header.isPresent()) {
+            log.info("aws-s3 bucket {} is in region {}", bucketName, header.get());
+            return Region.of(header.get());
+        }
+        try {
+            String location = client.getBucketLocation(GetBucketLocationRequest.builder().bucket(bucketName).build()).locationConstraintAsString();
+            // no constraint is the original us-east-1, EU the original eu-west-1
+            Region region = StringUtils.isEmpty(location) ? Region.US_EAST_1 : "EU".equals(location) ? Region.EU_WEST_1 : Region.of(location);
+            log.info("aws-s3 bucket {} is in region {}", bucketName, region.id());
+            return region;
+        } catch (SdkException e) {
+            log.warn("aws-s3 bucket {} region lookup failed, using {} : {}", bucketName, profile.region.id(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static String key(Profile profile, Region region) {
+        return profile.name + "/" + region.id();
+    }
+
+    @Override
+    public void close() {
+        presigners.values().forEach(S3Presigner::close);
+        syncClients.values().forEach(S3Client::close);
+        asyncClients.values().forEach(S3AsyncClient::close);
+        presigners.clear();
+        syncClients.clear();
+        asyncClients.clear();
+    }
+
+    /**
+     * a region lookup in flight or failed, null is the result of a failed one
+     */
+    private static class Lookup {
+        private final CompletableFuture<Region> result = new CompletableFuture<>();
+        private volatile long retryAt;
+
+        private void complete(Region region) {
+            retryAt = System.nanoTime() + FAILED_LOOKUP_RETRY_NANOS;
+            result.complete(region);
+        }
+
+        private boolean retryable() {
+            return result.isDone() && result.join() == null && System.nanoTime() - retryAt >= 0;
+        }
+    }
+
+    private static class Profile {
+        private final String name;
+        private final AwsCredentialsProvider provider;
+        private final Region region;
+        private final String endpoint;
+
+        private Profile(String name, String accessKey, String secretKey, String region, String endpoint) {
+            this.name = name;
+            this.provider = StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+            this.region = Region.of(region);
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * an endpoint override is addressed path-style
+         */
+        private S3Configuration s3Configuration() {
+            return S3Configuration.builder().pathStyleAccessEnabled(!StringUtils.isEmpty(endpoint)).build();
+        }
+    }
+}
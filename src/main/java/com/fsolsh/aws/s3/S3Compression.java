@@ -0,0 +1,117 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.config.FileType;
+import com.fsolsh.aws.support.ByteBufferInputStream;
+import com.fsolsh.aws.support.CompressingInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * content codings for stored objects, the codec is recorded in Content-Encoding so any http client can decode,
+ * gzip at the default level for size, deflate at the fastest level for throughput
+ */
+public enum S3Compression {
+    NONE(null, 0),
+    GZIP("gzip", Deflater.DEFAULT_COMPRESSION),
+    DEFLATE("deflate", Deflater.BEST_SPEED);
+
+    /**
+     * user metadata holding the uncompressed size of an encoded object
+     */
+    public static final String ORIGINAL_SIZE_METADATA = "original-size";
+
+    private final String contentEncoding;
+    private final int level;
+
+    S3Compression(String contentEncoding, int level) {
+        this.contentEncoding = contentEncoding;
+        this.level = level;
+    }
+
+    public String contentEncoding() {
+        return contentEncoding;
+    }
+
+    public InputStream compress(InputStream in) {
+        if (this == NONE) {
+            return in;
+        }
+        return new CompressingInputStream(in, this == GZIP, level);
+    }
+
+    public byte[] compress(byte[] bytes) {
+        return compress(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * compresses the remaining bytes, the buffer position is not changed
+     */
+    public byte[] compress(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, source.remaining() / 2));
+        try (InputStream in = compress(new ByteBufferInputStream(source))) {
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                out.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            // in-memory streams do not fail
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static boolean isDecodable(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        String coding = contentEncoding.trim().toLowerCase();
+        return coding.equals("gzip") || coding.equals("x-gzip") || coding.equals("deflate");
+    }
+
+    /**
+     * wraps an object's content so it reads decoded, content codings other than gzip and deflate are passed through
+     */
+    public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (!isDecodable(contentEncoding)) {
+            return in;
+        }
+        switch (contentEncoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, 64 * 1024);
+            case "deflate":
+                return new InflaterInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * whether content of this type is worth compressing, media that carries its own compression is skipped
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        FileType fileType = FileType.of(contentType);
+        if (fileType != null) {
+            return fileType.isCompressible();
+        }
+        String mediaType = contentType.toLowerCase();
+        if (mediaType.startsWith("image/")) {
+            return mediaType.startsWith("image/svg") || mediaType.startsWith("image/bmp");
+        }
+        return !mediaType.startsWith("audio/") && !mediaType.startsWith("video/")
+                && !mediaType.contains("gzip") && !mediaType.contains("zip") && !mediaType.contains("compressed")
+                && !mediaType.startsWith("application/zstd") && !mediaType.startsWith("application/x-7z");
+    }
+}
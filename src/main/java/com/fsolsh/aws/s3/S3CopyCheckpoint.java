@@ -0,0 +1,96 @@
+package com.fsolsh.aws.s3;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * append-only record of the source keys a bulk copy has finished, the first line names the copy so a file left by
+ * another copy is not trusted, every key line ends with a tab so a line torn by a crash is not taken for a key
+ */
+@Slf4j
+class S3CopyCheckpoint {
+
+    private final Path file;
+    private final Set<String> done = ConcurrentHashMap.newKeySet();
+    private BufferedWriter out;
+
+    S3CopyCheckpoint(Path file, String job) throws IOException {
+        this.file = file;
+        if (file == null) {
+            return;
+        }
+        boolean resume = false;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                if (job.equals(reader.readLine())) {
+                    resume = true;
+                    for (String line; (line = reader.readLine()) != null; ) {
+                        if (line.endsWith("\t")) {
+                            done.add(line.substring(0, line.length() - 1));
+                        }
+                    }
+                } else {
+                    log.warn("aws-s3 copy checkpoint {} belongs to another copy, starting over", file);
+                }
+            }
+        }
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        if (resume) {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            // ends a torn last line
+            out.newLine();
+        } else {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            out.write(job);
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    boolean contains(String sourceKey) {
+        return done.contains(sourceKey);
+    }
+
+    synchronized void done(String sourceKey) {
+        if (out == null || sourceKey.indexOf('\n') >= 0 || sourceKey.indexOf('\r') >= 0) {
+            return;
+        }
+        try {
+            out.write(sourceKey);
+            out.write('\t');
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            log.warn("aws-s3 copy checkpoint write error, {} : {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * a finished copy needs no checkpoint, a failed one keeps it for the next run
+     */
+    synchronized void close(boolean finished) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+            out = null;
+            if (finished) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("aws-s3 copy checkpoint close error, {} : {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Data;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * options of a bulk copy or move, the defaults keep keys, metadata and content type and copy privately
+ */
+@Data
+public class S3CopyOptions {
+
+    /**
+     * copies do not inherit the source acl, without one they get the bucket default
+     */
+    private ObjectCannedACL acl;
+    /**
+     * replaces the user metadata of the copies, null keeps the source metadata
+     */
+    private Map<String, String> metadata;
+    /**
+     * replaces the content type of the copies, null keeps the source content type
+     */
+    private String contentType;
+    /**
+     * maps the key below the source prefix to the key below the target prefix, an object mapped to null is left out
+     */
+    private Function<String, String> keyMapper;
+    /**
+     * objects copied at once, 0 uses s3_copy_concurrency
+     */
+    private int concurrency;
+    /**
+     * every finished object is appended to this file, so running the same copy again after a crash skips them,
+     * the file is removed once a run ends without errors
+     */
+    private Path checkpointFile;
+}
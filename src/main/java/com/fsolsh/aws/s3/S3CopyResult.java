@@ -0,0 +1,35 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Getter;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * outcome of a bulk copy or move, objects that could not be copied or deleted are listed by source key with the s3 error code
+ */
+@Getter
+public class S3CopyResult {
+
+    private final long copied;
+    /**
+     * objects left out by the key mapper or already copied by an earlier run
+     */
+    private final long skipped;
+    private final long deleted;
+    private final long bytesCopied;
+    private final List<S3Error> errors;
+
+    public S3CopyResult(long copied, long skipped, long deleted, long bytesCopied, List<S3Error> errors) {
+        this.copied = copied;
+        this.skipped = skipped;
+        this.deleted = deleted;
+        this.bytesCopied = bytesCopied;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+}
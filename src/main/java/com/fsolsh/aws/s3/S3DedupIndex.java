@@ -0,0 +1,228 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * bounded lru index from content sha-256 to the last object known to hold that content and its etag, when a file is
+ * given every change is appended to it as a tab separated line, the file is rewritten with only the live entries
+ * on open, on close and whenever it grows past twice their number, so it stays bounded even when never closed
+ * <p>
+ * an entry is only a hint, the object may have been overwritten or deleted by anyone since, so users copy from it
+ * conditionally on the etag
+ */
+@Slf4j
+public class S3DedupIndex implements AutoCloseable {
+
+    private static final String REMOVED = "-";
+    private static final int MIN_COMPACTION_LINES = 1024;
+
+    private final int maxSize;
+    private final Path file;
+    private final LinkedHashMap<String, S3DedupIndex.Entry> entries;
+    /**
+     * bucket/key of every indexed object to its sha-256, to drop the entry of a deleted object
+     */
+    private final Map<String, String> objects = new HashMap<>();
+    private BufferedWriter writer;
+    /**
+     * lines in the file, live or not
+     */
+    private long lines;
+
+    public S3DedupIndex(int maxSize, Path file) throws IOException {
+        this.maxSize = maxSize;
+        this.file = file;
+        this.entries = new LinkedHashMap<String, S3DedupIndex.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, S3DedupIndex.Entry> eldest) {
+                if (size() > S3DedupIndex.this.maxSize) {
+                    objects.remove(eldest.getValue().objectId(), eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (file != null) {
+            load();
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            if (lines > entries.size()) {
+                compact();
+            }
+            this.writer = open();
+        }
+    }
+
+    public synchronized Entry get(String sha256) {
+        return entries.get(sha256);
+    }
+
+    public synchronized void put(String sha256, String bucketName, String objectKey, long size, String eTag) {
+        if (maxSize <= 0 || objectKey.indexOf('\n') >= 0 || objectKey.indexOf('\r') >= 0 || eTag == null || eTag.isEmpty() || eTag.indexOf('\t') >= 0) {
+            return;
+        }
+        index(sha256, new Entry(bucketName, objectKey, size, eTag));
+        append(sha256 + '\t' + size + '\t' + eTag + '\t' + bucketName + '\t' + objectKey);
+    }
+
+    /**
+     * drop an entry whose object turned out to be gone or changed
+     */
+    public synchronized void remove(String sha256) {
+        if (unindex(sha256) != null) {
+            append(sha256 + '\t' + REMOVED);
+        }
+    }
+
+    /**
+     * drop the entry of an object that was deleted
+     */
+    public synchronized void removeObject(String bucketName, String objectKey) {
+        String sha256 = objects.get(bucketName + '/' + objectKey);
+        if (sha256 != null) {
+            remove(sha256);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                lines++;
+                String[] fields = line.split("\t", 5);
+                if (fields.length == 2 && REMOVED.equals(fields[1])) {
+                    unindex(fields[0]);
+                } else if (fields.length == 5) {
+                    try {
+                        index(fields[0], new Entry(fields[3], fields[4], Long.parseLong(fields[1]), fields[2]));
+                    } catch (NumberFormatException e) {
+                        // a line torn by a crash, the rest of the file is still good
+                    }
+                }
+            }
+        }
+        log.info("aws-s3 dedup index loaded {} entries from {}", entries.size(), file);
+    }
+
+    /**
+     * an object holds one content at a time, so a new entry for it replaces the entry of its old content
+     */
+    private void index(String sha256, Entry entry) {
+        Entry previous = entries.put(sha256, entry);
+        if (previous != null) {
+            objects.remove(previous.objectId(), sha256);
+        }
+        String replaced = objects.put(entry.objectId(), sha256);
+        if (replaced != null && !replaced.equals(sha256)) {
+            entries.remove(replaced);
+        }
+    }
+
+    private Entry unindex(String sha256) {
+        Entry entry = entries.remove(sha256);
+        if (entry != null) {
+            objects.remove(entry.objectId(), sha256);
+        }
+        return entry;
+    }
+
+    private void append(String line) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+            if (++lines > Math.max(MIN_COMPACTION_LINES, 2L * entries.size())) {
+                writer.close();
+                writer = null;
+                compact();
+                writer = open();
+            }
+        } catch (IOException e) {
+            log.warn("aws-s3 dedup index write error, {} : {}", file, e.getMessage());
+        }
+    }
+
+    private BufferedWriter open() throws IOException {
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * rewrite the file with only the live entries, least recently used first so a reload keeps the order
+     */
+    private void compact() {
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    Entry value = entry.getValue();
+                    out.write(entry.getKey() + '\t' + value.size + '\t' + value.eTag + '\t' + value.bucketName + '\t' + value.objectKey);
+                    out.newLine();
+                }
+            }
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = entries.size();
+        } catch (IOException e) {
+            log.warn("aws-s3 dedup index compaction error, {} : {}", file, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("aws-s3 dedup index write error, {} : {}", file, e.getMessage());
+        }
+        writer = null;
+        compact();
+    }
+
+    @Getter
+    public static class Entry {
+        private final String bucketName;
+        private final String objectKey;
+        private final long size;
+        private final String eTag;
+
+        private Entry(String bucketName, String objectKey, long size, String eTag) {
+            this.bucketName = bucketName;
+            this.objectKey = objectKey;
+            this.size = size;
+            this.eTag = eTag;
+        }
+
+        public boolean isAt(String bucketName, String objectKey) {
+            return this.bucketName.equals(bucketName) && this.objectKey.equals(objectKey);
+        }
+
+        private String objectId() {
+            return bucketName + '/' + objectKey;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.fsolsh.aws.s3;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * content-addressed upload, the payload's sha-256 is looked up before anything is sent
+ * <ul>
+ * <li>another object holds it : a server-side CopyObject with the new acl and metadata, conditional on the etag
+ * the index recorded for that object, so a source that was overwritten since is never copied</li>
+ * <li>the target holds it, as HeadObject confirms by its sha-256 metadata : the PUT is skipped when it would not
+ * change acl, metadata, content type or encoding, otherwise the object is copied onto itself with them</li>
+ * <li>anything else : a normal upload</li>
+ * </ul>
+ * the target is only checked when the index points at it or head fallback is on, the hash is stored as
+ * x-amz-meta-sha256 on every object written here so HeadObject can recognise it
+ */
+@Slf4j
+public class S3DedupUploader {
+
+    public static final String SHA256_METADATA = "sha256";
+    private static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final S3MultipartUploader multipartUploader;
+    private final S3DedupIndex index;
+    private final boolean headFallback;
+
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder copied = new LongAdder();
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    public S3DedupUploader(S3Client s3, S3MultipartUploader multipartUploader, S3DedupIndex index, boolean headFallback) {
+        this.s3 = s3;
+        this.multipartUploader = multipartUploader;
+        this.index = index;
+        this.headFallback = headFallback;
+    }
+
+    public boolean upload(PutObjectRequest putOb, byte[] bytes) {
+        MessageDigest digest = sha256();
+        digest.update(bytes);
+        return upload(putOb, hex(digest.digest()), bytes.length, request -> eTag(s3.putObject(request, RequestBody.fromBytes(bytes))));
+    }
+
+    public boolean upload(PutObjectRequest putOb, ByteBuffer byteBuffer) {
+        MessageDigest digest = sha256();
+        digest.update(byteBuffer.duplicate());
+        return upload(putOb, hex(digest.digest()), byteBuffer.remaining(), request -> multipartUploader.put(request, byteBuffer));
+    }
+
+    /**
+     * the file is read twice at most, once to hash it and once to send it when it is new
+     */
+    public boolean upload(PutObjectRequest putOb, Path path) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            drain(in, null);
+        }
+        return upload(putOb, hex(digest.digest()), Files.size(path), request -> multipartUploader.put(request, path));
+    }
+
+    /**
+     * the stream is hashed while it is spooled to a temp file, so it is only sent when its content is new
+     */
+    public boolean upload(PutObjectRequest putOb, InputStream inputStream) throws IOException {
+        Path spool = Files.createTempFile("aws-s3-dedup", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (OutputStream out = Files.newOutputStream(spool)) {
+                size = drain(new DigestInputStream(inputStream, digest), out);
+            }
+            return upload(putOb, hex(digest.digest()), size, request -> multipartUploader.put(request, spool));
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private <E extends Exception> boolean upload(PutObjectRequest putOb, String sha256, long size, Put<E> put) throws E {
+        String bucketName = putOb.bucket();
+        String objectKey = putOb.key();
+
+        S3DedupIndex.Entry known = index.get(sha256);
+        boolean knownAtTarget = known != null && known.isAt(bucketName, objectKey);
+        if (known != null && !knownAtTarget && size <= MAX_COPY_SIZE) {
+            String eTag = copy(known.getBucketName(), known.getObjectKey(), known.getETag(), putOb, sha256);
+            if (eTag != null) {
+                index.put(sha256, bucketName, objectKey, size, eTag);
+                copied.increment();
+                bytesSaved.add(size);
+                log.info("putObject replaced by copy from : {}/{} to : {}/{}", known.getBucketName(), known.getObjectKey(), bucketName, objectKey);
+                return true;
+            }
+            index.remove(sha256);
+        }
+        if (knownAtTarget || headFallback) {
+            HeadObjectResponse head = head(bucketName, objectKey);
+            if (head != null && head.hasMetadata() && sha256.equals(head.metadata().get(SHA256_METADATA))) {
+                if (unchanged(head, putOb, sha256)) {
+                    index.put(sha256, bucketName, objectKey, size, head.eTag());
+                    skipped.increment();
+                    bytesSaved.add(size);
+                    log.info("putObject skipped, content already at : {}/{}", bucketName, objectKey);
+                    return true;
+                }
+                String eTag = size <= MAX_COPY_SIZE ? copy(bucketName, objectKey, head.eTag(), putOb, sha256) : null;
+                if (eTag != null) {
+                    index.put(sha256, bucketName, objectKey, size, eTag);
+                    copied.increment();
+                    bytesSaved.add(size);
+                    log.info("putObject replaced by in-place copy at : {}/{}", bucketName, objectKey);
+                    return true;
+                }
+            } else if (knownAtTarget) {
+                index.remove(sha256);
+            }
+        }
+
+        String eTag = put.put(putOb.toBuilder().metadata(metadata(putOb, sha256)).build());
+        if (eTag == null) {
+            return false;
+        }
+        index.put(sha256, bucketName, objectKey, size, eTag);
+        uploaded.increment();
+        return true;
+    }
+
+    /**
+     * @return the etag of the copy, null when the source is gone, not readable or no longer holds the content
+     */
+    private String copy(String sourceBucket, String sourceKey, String sourceETag, PutObjectRequest putOb, String sha256) {
+        CopyObjectRequest request = CopyObjectRequest.builder()
+                .copySource(copySource(sourceBucket, sourceKey))
+                .copySourceIfMatch(sourceETag)
+                .destinationBucket(putOb.bucket())
+                .destinationKey(putOb.key())
+                .metadataDirective(MetadataDirective.REPLACE)
+                .metadata(metadata(putOb, sha256))
+                .acl(putOb.acl())
+                .contentType(putOb.contentType())
+                .contentEncoding(putOb.contentEncoding())
+                .build();
+        try {
+            CopyObjectResponse response = s3.copyObject(request);
+            if (!response.sdkHttpResponse().isSuccessful()) {
+                return null;
+            }
+            return response.copyObjectResult() != null ? Objects.toString(response.copyObjectResult().eTag(), "") : "";
+        } catch (S3Exception e) {
+            if (e.statusCode() != 404 && e.statusCode() != 403 && e.statusCode() != 412) {
+                throw e;
+            }
+            log.warn("dedup copy source {}/{} unavailable or changed, uploading instead : {}", sourceBucket, sourceKey, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return null when there is no such object
+     */
+    private HeadObjectResponse head(String bucketName, String objectKey) {
+        try {
+            return s3.headObject(HeadObjectRequest.builder().bucket(bucketName).key(objectKey).build());
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            // HeadObject answers a missing key with a bare 404
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * a put without acl asking for the metadata and encoding the object already has, and its content type or none,
+     * a put with an acl always rewrites the object since its current acl is not known
+     */
+    private static boolean unchanged(HeadObjectResponse head, PutObjectRequest putOb, String sha256) {
+        if (putOb.acl() != null) {
+            return false;
+        }
+        Map<String, String> requested = new HashMap<>();
+        for (Map.Entry<String, String> entry : metadata(putOb, sha256).entrySet()) {
+            requested.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        return requested.equals(head.metadata())
+                && (putOb.contentType() == null || putOb.contentType().equals(head.contentType()))
+                && Objects.equals(putOb.contentEncoding(), head.contentEncoding());
+    }
+
+    private static Map<String, String> metadata(PutObjectRequest putOb, String sha256) {
+        Map<String, String> metadata = putOb.hasMetadata() ? new HashMap<>(putOb.metadata()) : new HashMap<>();
+        metadata.put(SHA256_METADATA, sha256);
+        return metadata;
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getCopied() {
+        return copied.sum();
+    }
+
+    public long getUploaded() {
+        return uploaded.sum();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * the x-amz-copy-source value, the key is url encoded with its slashes kept
+     */
+    static String copySource(String bucketName, String objectKey) {
+        return bucketName + "/" + SdkHttpUtils.urlEncodeIgnoreSlashes(objectKey);
+    }
+
+    private static String eTag(PutObjectResponse response) {
+        return response.sdkHttpResponse().isSuccessful() ? Objects.toString(response.eTag(), "") : null;
+    }
+
+    private static long drain(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        for (int n; (n = in.read(buffer)) >= 0; ) {
+            if (out != null) {
+                out.write(buffer, 0, n);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return the etag of the new object, null when s3 did not report success
+     */
+    @FunctionalInterface
+    private interface Put<E extends Exception> {
+        String put(PutObjectRequest request) throws E;
+    }
+}
@@ -0,0 +1,26 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Getter;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * outcome of a bulk delete, keys that could not be deleted are listed with the s3 error code
+ */
+@Getter
+public class S3DeleteResult {
+
+    private final long deleted;
+    private final List<S3Error> errors;
+
+    public S3DeleteResult(long deleted, List<S3Error> errors) {
+        this.deleted = deleted;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+}
@@ -0,0 +1,282 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.support.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * one-way sync of a local directory to a bucket prefix
+ * <ul>
+ * <li>the prefix is listed page by page and every file is compared by size, then by etag</li>
+ * <li>a file unchanged since the manifest recorded it is trusted without being read, any other file of the
+ * same size is hashed and compared with the etag, multipart etags are rebuilt with s3_multipart_part_size</li>
+ * <li>changed files are streamed from disk by a bounded worker pool, large ones as multipart uploads</li>
+ * <li>objects without a local file are deleted in 1000-key batches when asked to</li>
+ * </ul>
+ * a file that fails is reported and the sync goes on with the others
+ */
+@Slf4j
+public class S3DirectorySync {
+
+    private final S3Client s3;
+    private final S3MultipartUploader multipartUploader;
+    private final S3BulkDeleter bulkDeleter;
+    private final int partSize;
+    private final int concurrency;
+    private final BiConsumer<String, String> uploadedListener;
+
+    public S3DirectorySync(S3Client s3, S3MultipartUploader multipartUploader, S3BulkDeleter bulkDeleter, int partSize, int concurrency) {
+        this(s3, multipartUploader, bulkDeleter, partSize, concurrency, (bucketName, objectKey) -> {
+        });
+    }
+
+    /**
+     * @param uploadedListener called with bucket and key of every uploaded file, from the sync threads
+     */
+    public S3DirectorySync(S3Client s3, S3MultipartUploader multipartUploader, S3BulkDeleter bulkDeleter, int partSize, int concurrency,
+                           BiConsumer<String, String> uploadedListener) {
+        this.s3 = s3;
+        this.multipartUploader = multipartUploader;
+        this.bulkDeleter = bulkDeleter;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.uploadedListener = uploadedListener;
+    }
+
+    public S3SyncResult sync(Path directory, String bucketName, String prefix, S3SyncOptions options) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("not a directory : " + directory);
+        }
+        String keyPrefix = prefix == null || prefix.isEmpty() || prefix.endsWith("/") ? Objects.toString(prefix, "") : prefix + "/";
+        Path manifestFile = options.getManifestFile() != null ? options.getManifestFile().toAbsolutePath().normalize() : null;
+
+        Map<String, Path> localFiles = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile)
+                    .filter(file -> !file.toAbsolutePath().normalize().equals(manifestFile))
+                    .forEach(file -> localFiles.put(keyPrefix + objectKey(directory.relativize(file)), file));
+        }
+
+        Map<String, S3Object> remoteObjects = new HashMap<>();
+        ListObjectsV2Request listRequest = ListObjectsV2Request.builder().bucket(bucketName).prefix(keyPrefix).build();
+        for (S3Object object : s3.listObjectsV2Paginator(listRequest).contents()) {
+            if (!object.key().endsWith("/")) {
+                remoteObjects.put(object.key(), object);
+            }
+        }
+
+        List<String> orphans = new ArrayList<>();
+        if (options.isDeleteOrphans()) {
+            for (String objectKey : remoteObjects.keySet()) {
+                if (!localFiles.containsKey(objectKey)) {
+                    orphans.add(objectKey);
+                }
+            }
+        }
+
+        S3SyncManifest manifest = new S3SyncManifest(manifestFile);
+        Progress progress = new Progress(options.getListener(), localFiles.size() + orphans.size());
+        int workers = Math.max(1, options.getConcurrency() > 0 ? options.getConcurrency() : concurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("aws-s3-sync"));
+        List<Future<S3SyncFileResult>> futures = new ArrayList<>(localFiles.size());
+        try {
+            for (Map.Entry<String, Path> file : localFiles.entrySet()) {
+                futures.add(executor.submit(() -> progress.done(
+                        syncFile(bucketName, file.getKey(), file.getValue(), remoteObjects.get(file.getKey()), options, manifest))));
+            }
+            List<S3SyncFileResult> results = new ArrayList<>(futures.size() + orphans.size());
+            for (Future<S3SyncFileResult> future : futures) {
+                results.add(future.get());
+            }
+            if (!orphans.isEmpty()) {
+                results.addAll(deleteOrphans(bucketName, orphans, progress));
+            }
+
+            List<String> synced = new ArrayList<>(results.size());
+            for (S3SyncFileResult result : results) {
+                if (result.getAction() == S3SyncFileResult.Action.UPLOADED || result.getAction() == S3SyncFileResult.Action.UNCHANGED) {
+                    synced.add(result.getObjectKey());
+                }
+            }
+            manifest.retain(synced);
+            manifest.save();
+
+            S3SyncResult result = new S3SyncResult(results);
+            log.info("syncDirectory finished, bucket : {}, prefix : {}, uploaded : {}, unchanged : {}, deleted : {}, failed : {}",
+                    bucketName, keyPrefix, result.getUploaded(), result.getUnchanged(), result.getDeleted(), result.getFailed());
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("directory sync interrupted", e);
+        } catch (ExecutionException e) {
+            // syncFile reports its own failures, only an Error gets here
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private S3SyncFileResult syncFile(String bucketName, String objectKey, Path path, S3Object remote, S3SyncOptions options, S3SyncManifest manifest) {
+        long size = 0;
+        try {
+            size = Files.size(path);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (remote != null && remote.size() == size) {
+                String remoteETag = unquote(remote.eTag());
+                if (manifest.matches(objectKey, size, lastModified, remoteETag) || remoteETag.equals(localETag(path, remoteETag.indexOf('-') > 0))) {
+                    manifest.put(objectKey, size, lastModified, remoteETag);
+                    return new S3SyncFileResult(objectKey, path, S3SyncFileResult.Action.UNCHANGED, size, null);
+                }
+            }
+
+            PutObjectRequest putOb = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectKey)
+                    .acl(options.getAcl())
+                    .contentType(contentType(path))
+                    .build();
+            String eTag = multipartUploader.put(putOb, path);
+            if (eTag == null) {
+                return new S3SyncFileResult(objectKey, path, S3SyncFileResult.Action.FAILED, size, "putObject not successful");
+            }
+            uploadedListener.accept(bucketName, objectKey);
+            manifest.put(objectKey, size, lastModified, unquote(eTag));
+            return new S3SyncFileResult(objectKey, path, S3SyncFileResult.Action.UPLOADED, size, null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("syncDirectory upload error, key : {}, file : {}, cause : {}", objectKey, path, e.getMessage());
+            return new S3SyncFileResult(objectKey, path, S3SyncFileResult.Action.FAILED, size, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private List<S3SyncFileResult> deleteOrphans(String bucketName, List<String> orphans, Progress progress) {
+        S3DeleteResult deleteResult = bulkDeleter.delete(bucketName, orphans.iterator());
+        Map<String, S3Error> errors = new HashMap<>();
+        for (S3Error error : deleteResult.getErrors()) {
+            errors.put(error.key(), error);
+        }
+        List<S3SyncFileResult> results = new ArrayList<>(orphans.size());
+        for (String objectKey : orphans) {
+            S3Error error = errors.get(objectKey);
+            results.add(progress.done(error == null ?
+                    new S3SyncFileResult(objectKey, null, S3SyncFileResult.Action.DELETED, 0, null) :
+                    new S3SyncFileResult(objectKey, null, S3SyncFileResult.Action.FAILED, 0, error.code() + " : " + error.message())));
+        }
+        return results;
+    }
+
+    /**
+     * md5 of the file, or the multipart etag md5(md5(part 1)..md5(part n))-n for the same part size,
+     * both come out of a single read
+     */
+    private String localETag(Path path, boolean multipart) throws IOException {
+        MessageDigest whole = md5();
+        MessageDigest part = md5();
+        MessageDigest parts = md5();
+        int partCount = 0;
+        long partLength = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                whole.update(buffer, 0, n);
+                int offset = 0;
+                while (multipart && offset < n) {
+                    int length = (int) Math.min(n - offset, partSize - partLength);
+                    part.update(buffer, offset, length);
+                    offset += length;
+                    partLength += length;
+                    if (partLength == partSize) {
+                        parts.update(part.digest());
+                        partCount++;
+                        partLength = 0;
+                    }
+                }
+            }
+        }
+        if (!multipart) {
+            return hex(whole.digest());
+        }
+        if (partLength > 0) {
+            parts.update(part.digest());
+            partCount++;
+        }
+        return hex(parts.digest()) + "-" + partCount;
+    }
+
+    private static String objectKey(Path relative) {
+        StringBuilder key = new StringBuilder();
+        for (Path name : relative) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(name.toString());
+        }
+        return key.toString();
+    }
+
+    private static String contentType(Path path) {
+        try {
+            return Files.probeContentType(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String unquote(String eTag) {
+        return eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static class Progress {
+        private final S3SyncListener listener;
+        private final int total;
+        private final AtomicInteger completed = new AtomicInteger();
+
+        private Progress(S3SyncListener listener, int total) {
+            this.listener = listener;
+            this.total = total;
+        }
+
+        private S3SyncFileResult done(S3SyncFileResult result) {
+            int count = completed.incrementAndGet();
+            if (listener != null) {
+                try {
+                    listener.onFile(result, count, total);
+                } catch (RuntimeException e) {
+                    log.warn("syncDirectory listener error, key : {}, cause : {}", result.getObjectKey(), e.getMessage());
+                }
+            }
+            return result;
+        }
+    }
+}
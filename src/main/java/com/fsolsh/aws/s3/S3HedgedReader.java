@@ -0,0 +1,259 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.support.NamedThreadFactory;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * hedged GETs, a GET that has not answered within the chosen percentile of the recent time to first byte is
+ * sent once more and whichever answers first is returned, the other response is aborted when it arrives
+ * <p>
+ * while hedging both GETs run on a pool of at most concurrency threads and the caller only waits for the first
+ * answer, a GET that finds no free thread runs on the caller's thread without a hedge, and a hedge that finds
+ * none is not sent
+ * <p>
+ * the delay adapts to the endpoint, so about 1 - percentile of the GETs are hedged when the endpoint is healthy,
+ * a GET that fails before the delay is not hedged, retries are left to the sdk
+ */
+public class S3HedgedReader implements AutoCloseable {
+
+    private static final int SAMPLES = 512;
+    private static final int MIN_SAMPLES = 32;
+
+    private final S3Client s3;
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final ExecutorService executor;
+    private final long[] samples = new long[SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private volatile long delayNanos = -1;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * a reader that does not hedge
+     */
+    public S3HedgedReader(S3Client s3) {
+        this(s3, false, 0, Duration.ZERO, 0);
+    }
+
+    public S3HedgedReader(S3Client s3, boolean enabled, double percentile, Duration minDelay, int concurrency) {
+        this.s3 = s3;
+        this.enabled = enabled;
+        this.percentile = Math.min(0.999, Math.max(0.5, percentile));
+        this.minDelayNanos = minDelay.toNanos();
+        this.executor = enabled ? new ThreadPoolExecutor(0, Math.max(1, concurrency), 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new NamedThreadFactory("aws-s3-hedge")) : null;
+    }
+
+    /**
+     * the caller must close the stream to release the connection
+     */
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        requests.increment();
+        long delay = delayNanos;
+        if (!enabled || delay < 0) {
+            long start = System.nanoTime();
+            ResponseInputStream<GetObjectResponse> in = s3.getObject(request);
+            if (enabled) {
+                sample(System.nanoTime() - start);
+            }
+            return in;
+        }
+
+        Race race = new Race();
+        if (!send(race, request, false)) {
+            // every thread is busy, or the reader was closed
+            return s3.getObject(request);
+        }
+        if (!race.await(delay) && race.launch()) {
+            if (send(race, request, true)) {
+                hedged.increment();
+            } else {
+                race.withdraw();
+            }
+        }
+        return race.await();
+    }
+
+    /**
+     * @return false when no thread was free to send it
+     */
+    private boolean send(Race race, GetObjectRequest request, boolean hedge) {
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                ResponseInputStream<GetObjectResponse> in;
+                try {
+                    in = s3.getObject(request);
+                } catch (RuntimeException e) {
+                    race.fail(e);
+                    return;
+                }
+                sample(System.nanoTime() - start);
+                race.win(in, hedge ? hedgeWins : null);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * the delay is recomputed every MIN_SAMPLES samples from the last SAMPLES
+     */
+    private void sample(long nanos) {
+        long[] snapshot = null;
+        synchronized (samples) {
+            samples[nextSample] = nanos;
+            nextSample = (nextSample + 1) % SAMPLES;
+            sampleCount++;
+            if (sampleCount % MIN_SAMPLES == 0) {
+                snapshot = Arrays.copyOf(samples, Math.min(sampleCount, SAMPLES));
+            }
+        }
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            delayNanos = Math.max(minDelayNanos, snapshot[(int) Math.min(snapshot.length - 1, Math.floor(percentile * snapshot.length))]);
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * GETs that were sent a second time
+     */
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    /**
+     * hedged GETs where the second request answered first
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * the current hedging delay, null until enough GETs were seen
+     */
+    public Duration getDelay() {
+        long delay = delayNanos;
+        return delay < 0 ? null : Duration.ofNanos(delay);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * the first response wins, later ones and those arriving after the caller gave up are aborted
+     */
+    private static class Race {
+        private ResponseInputStream<GetObjectResponse> winner;
+        private RuntimeException error;
+        private int launched = 1;
+        private int failed;
+        private boolean closed;
+
+        /**
+         * @return false when the race is already decided and the hedge is not needed
+         */
+        private synchronized boolean launch() {
+            if (closed || winner != null) {
+                return false;
+            }
+            launched++;
+            return true;
+        }
+
+        private synchronized void withdraw() {
+            launched--;
+            notifyAll();
+        }
+
+        /**
+         * @param wins counted before the caller wakes up, null for the first GET
+         */
+        private boolean win(ResponseInputStream<GetObjectResponse> in, LongAdder wins) {
+            synchronized (this) {
+                if (winner == null && !closed) {
+                    winner = in;
+                    if (wins != null) {
+                        wins.increment();
+                    }
+                    notifyAll();
+                    return true;
+                }
+            }
+            in.abort();
+            return false;
+        }
+
+        private synchronized void fail(RuntimeException e) {
+            failed++;
+            if (error == null) {
+                error = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * @return true when the race was decided within the time, by an answer or by every GET failing
+         */
+        private synchronized boolean await(long nanos) {
+            long deadline = System.nanoTime() + nanos;
+            try {
+                for (long remaining = nanos; winner == null && failed < launched && remaining > 0; remaining = deadline - System.nanoTime()) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            }
+            return winner != null || failed >= launched;
+        }
+
+        /**
+         * waits for the first answer, or for every GET to fail
+         */
+        private synchronized ResponseInputStream<GetObjectResponse> await() {
+            try {
+                while (winner == null && failed < launched) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            }
+            closed = true;
+            if (winner == null) {
+                throw error;
+            }
+            return winner;
+        }
+
+        /**
+         * GETs answering after the caller gave up are aborted
+         */
+        private RuntimeException interrupted(InterruptedException e) {
+            closed = true;
+            Thread.currentThread().interrupt();
+            return new RuntimeException("hedged getObject interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.support.ByteBufferInputStream;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * streaming upload, inputs larger than one part are split into a multipart upload whose parts are sent
+ * in parallel, memory is bounded by a pool of reusable part buffers shared by all uploads, which are allocated on
+ * first use up to the pool size
+ */
+@Slf4j
+public class S3MultipartUploader {
+
+    private static final String PART_CONTENT_TYPE = "application/octet-stream";
+    private static final int MAX_PARTS = 10000;
+
+    private final S3Client s3;
+    private final ExecutorService executor;
+    private final int partSize;
+    private final int partRetries;
+    private final int concurrency;
+    private final BlockingQueue<byte[]> buffers;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public S3MultipartUploader(S3Client s3, ExecutorService executor, int partSize, int concurrency, int partRetries) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.partSize = partSize;
+        this.partRetries = Math.max(1, partRetries);
+        this.concurrency = Math.max(1, concurrency);
+        this.buffers = new ArrayBlockingQueue<>(this.concurrency);
+    }
+
+    public boolean upload(PutObjectRequest putOb, Path path) throws IOException {
+        return put(putOb, path) != null;
+    }
+
+    /**
+     * same as upload, but reports the etag of the new object
+     *
+     * @return the etag, null when s3 did not report success
+     */
+    public String put(PutObjectRequest putOb, Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < partSize) {
+            return eTag(s3.putObject(putOb, RequestBody.fromFile(path)));
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return put(putOb, in);
+        }
+    }
+
+    /**
+     * heap buffers are sent from their backing storage, no part is copied
+     */
+    public boolean upload(PutObjectRequest putOb, ByteBuffer byteBuffer) {
+        return put(putOb, byteBuffer) != null;
+    }
+
+    /**
+     * @return the etag of the new object, null when s3 did not report success
+     */
+    public String put(PutObjectRequest putOb, ByteBuffer byteBuffer) {
+        ByteBuffer source = byteBuffer.slice();
+        if (source.remaining() < partSize) {
+            RequestBody body = RequestBody.fromContentProvider(() -> new ByteBufferInputStream(source), source.remaining(), contentType(putOb));
+            return eTag(s3.putObject(putOb, body));
+        }
+
+        String uploadId = createMultipartUpload(putOb);
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        try {
+            int partNumber = 1;
+            for (int offset = 0; offset < source.limit(); offset += partSize, partNumber++) {
+                if (partNumber > MAX_PARTS) {
+                    throw tooManyParts();
+                }
+                ByteBuffer part = source.duplicate();
+                part.position(offset).limit(Math.min(offset + partSize, source.limit()));
+                ByteBuffer slice = part.slice();
+                parts.add(submitPart(putOb, uploadId, partNumber, () -> new ByteBufferInputStream(slice), slice.remaining(), null, aborted));
+            }
+            return completeMultipartUpload(putOb, uploadId, parts);
+        } catch (RuntimeException | Error e) {
+            abort(putOb, uploadId, parts, aborted);
+            throw e;
+        }
+    }
+
+    public boolean upload(PutObjectRequest putOb, InputStream in) throws IOException {
+        return put(putOb, in) != null;
+    }
+
+    /**
+     * @return the etag of the new object, null when s3 did not report success
+     */
+    public String put(PutObjectRequest putOb, InputStream in) throws IOException {
+        byte[] first = takeBuffer();
+        int firstLength;
+        try {
+            firstLength = fill(in, first);
+        } catch (IOException | RuntimeException e) {
+            buffers.add(first);
+            throw e;
+        }
+        if (firstLength < partSize) {
+            try {
+                RequestBody body = RequestBody.fromContentProvider(() -> new ByteArrayInputStream(first, 0, firstLength), firstLength, contentType(putOb));
+                return eTag(s3.putObject(putOb, body));
+            } finally {
+                buffers.add(first);
+            }
+        }
+
+        String uploadId;
+        try {
+            uploadId = createMultipartUpload(putOb);
+        } catch (RuntimeException e) {
+            buffers.add(first);
+            throw e;
+        }
+
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        try {
+            byte[] buffer = first;
+            int length = firstLength;
+            int partNumber = 1;
+            while (length > 0) {
+                byte[] part = buffer;
+                int partLength = length;
+                if (partNumber > MAX_PARTS) {
+                    buffers.add(part);
+                    throw tooManyParts();
+                }
+                parts.add(submitPart(putOb, uploadId, partNumber++, () -> new ByteArrayInputStream(part, 0, partLength), partLength, part, aborted));
+                if (partLength < partSize) {
+                    break;
+                }
+                failFast(parts);
+                buffer = takeBuffer();
+                try {
+                    length = fill(in, buffer);
+                } catch (IOException | RuntimeException e) {
+                    buffers.add(buffer);
+                    throw e;
+                }
+                if (length == 0) {
+                    buffers.add(buffer);
+                }
+            }
+            return completeMultipartUpload(putOb, uploadId, parts);
+        } catch (IOException | RuntimeException | Error e) {
+            abort(putOb, uploadId, parts, aborted);
+            throw e;
+        }
+    }
+
+    private Future<CompletedPart> submitPart(PutObjectRequest putOb, String uploadId, int partNumber, ContentStreamProvider content, long length, byte[] buffer, AtomicBoolean aborted) {
+        try {
+            return executor.submit(() -> {
+                try {
+                    if (aborted.get()) {
+                        throw new CancellationException("multipart upload aborted");
+                    }
+                    return uploadPart(putOb, uploadId, partNumber, content, length);
+                } finally {
+                    if (buffer != null) {
+                        buffers.add(buffer);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (buffer != null) {
+                buffers.add(buffer);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * a failed part is retried on its own, the rest of the upload keeps going
+     */
+    private CompletedPart uploadPart(PutObjectRequest putOb, String uploadId, int partNumber, ContentStreamProvider content, long length) throws InterruptedException {
+        UploadPartRequest request = UploadPartRequest.builder()
+                .bucket(putOb.bucket())
+                .key(putOb.key())
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length)
+                .build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                UploadPartResponse response = s3.uploadPart(request, RequestBody.fromContentProvider(content, length, PART_CONTENT_TYPE));
+                return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+            } catch (SdkException e) {
+                if (attempt >= partRetries) {
+                    throw e;
+                }
+                log.warn("uploadPart retry {}/{}, key : {}, part : {}, cause : {}", attempt, partRetries, putOb.key(), partNumber, e.getMessage());
+                Thread.sleep(100L << Math.min(attempt, 6));
+            }
+        }
+    }
+
+    private String createMultipartUpload(PutObjectRequest putOb) {
+        CreateMultipartUploadRequest request = CreateMultipartUploadRequest.builder()
+                .bucket(putOb.bucket())
+                .key(putOb.key())
+                .acl(putOb.acl())
+                .metadata(putOb.metadata())
+                .contentType(putOb.contentType())
+                .contentEncoding(putOb.contentEncoding())
+                .build();
+        return s3.createMultipartUpload(request).uploadId();
+    }
+
+    private String completeMultipartUpload(PutObjectRequest putOb, String uploadId, List<Future<CompletedPart>> parts) {
+        List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+        for (Future<CompletedPart> part : parts) {
+            completedParts.add(await(part));
+        }
+        CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                .bucket(putOb.bucket())
+                .key(putOb.key())
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build();
+        CompleteMultipartUploadResponse response = s3.completeMultipartUpload(request);
+        return response.sdkHttpResponse().isSuccessful() ? Objects.toString(response.eTag(), "") : null;
+    }
+
+    /**
+     * queued parts are skipped rather than cancelled so every part buffer makes it back to the pool,
+     * the upload is aborted once no part is in flight any more
+     */
+    private void abort(PutObjectRequest putOb, String uploadId, List<Future<CompletedPart>> parts, AtomicBoolean aborted) {
+        aborted.set(true);
+        for (Future<CompletedPart> part : parts) {
+            try {
+                part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | CancellationException ignored) {
+                // already reported through the failing part
+            }
+        }
+        try {
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder().bucket(putOb.bucket()).key(putOb.key()).uploadId(uploadId).build());
+            log.warn("multipart upload aborted, key : {}, uploadId : {}", putOb.key(), uploadId);
+        } catch (SdkException e) {
+            log.error("abortMultipartUpload error, key : {}, uploadId : {}", putOb.key(), uploadId, e);
+        }
+    }
+
+    /**
+     * stop reading the source as soon as a part has failed for good
+     */
+    private void failFast(List<Future<CompletedPart>> parts) {
+        for (Future<CompletedPart> part : parts) {
+            if (part.isDone()) {
+                await(part);
+            }
+        }
+    }
+
+    private CompletedPart await(Future<CompletedPart> part) {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("multipart upload interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static String eTag(PutObjectResponse response) {
+        return response.sdkHttpResponse().isSuccessful() ? Objects.toString(response.eTag(), "") : null;
+    }
+
+    private static IllegalStateException tooManyParts() {
+        return new IllegalStateException("multipart upload exceeds " + MAX_PARTS + " parts, increase s3_multipart_part_size");
+    }
+
+    /**
+     * a free buffer, a new one while fewer than concurrency exist, otherwise waits for one to be returned
+     */
+    private byte[] takeBuffer() {
+        byte[] buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        for (int count = allocated.get(); count < concurrency; count = allocated.get()) {
+            if (allocated.compareAndSet(count, count + 1)) {
+                return new byte[partSize];
+            }
+        }
+        try {
+            return buffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("multipart upload interrupted", e);
+        }
+    }
+
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private static String contentType(PutObjectRequest putOb) {
+        return putOb.contentType() != null ? putOb.contentType() : PART_CONTENT_TYPE;
+    }
+}
@@ -0,0 +1,361 @@
+package com.fsolsh.aws.s3;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * read-through object cache with two lru tiers bounded in bytes, objects up to maxMemoryObjectSize are kept on heap,
+ * larger ones in memory-mapped files under the disk directory, which is a scratch area cleared on start
+ * <p>
+ * an entry is served without a request for the ttl after it was fetched or revalidated, then it is revalidated
+ * with a GET carrying If-None-Match, a 304 keeps the cached bytes, concurrent misses of one key share a single GET,
+ * objects stored with a content encoding are cached decoded
+ */
+@Slf4j
+public class S3ObjectCache implements AutoCloseable {
+
+    private static final String FILE_SUFFIX = ".obj";
+
+    private final S3HedgedReader reader;
+    private final long memorySize;
+    private final int maxMemoryObjectSize;
+    private final Path directory;
+    private final long diskSize;
+    private final long ttlMillis;
+    private final Tier memory = new Tier();
+    private final Tier disk = new Tier();
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong fileSequence = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+
+    public S3ObjectCache(S3Client s3, long memorySize, int maxMemoryObjectSize, Path directory, long diskSize, Duration ttl) throws IOException {
+        this(new S3HedgedReader(s3), memorySize, maxMemoryObjectSize, directory, diskSize, ttl);
+    }
+
+    /**
+     * misses and revalidations are fetched through the reader, so they are hedged when it hedges
+     */
+    public S3ObjectCache(S3HedgedReader reader, long memorySize, int maxMemoryObjectSize, Path directory, long diskSize, Duration ttl) throws IOException {
+        this.reader = reader;
+        this.memorySize = memorySize;
+        this.maxMemoryObjectSize = maxMemoryObjectSize;
+        this.directory = directory;
+        this.diskSize = diskSize;
+        this.ttlMillis = ttl.toMillis();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * @return a read-only view of the object, heap backed or mapped from the disk tier
+     */
+    public ByteBuffer get(String bucketName, String objectKey) throws IOException {
+        String cacheKey = bucketName + '\n' + objectKey;
+        Entry cached = lookup(cacheKey);
+        if (cached != null && System.currentTimeMillis() - cached.validatedAt < ttlMillis) {
+            return serve(cached);
+        }
+
+        CompletableFuture<Entry> flight = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(cacheKey, flight);
+        if (running != null) {
+            return serve(await(running));
+        }
+        try {
+            Entry entry = fetch(cacheKey, bucketName, objectKey, cached, flight);
+            flight.complete(entry);
+            bytesServed.add(entry.size);
+            return entry.view();
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, flight);
+        }
+    }
+
+    /**
+     * drop an entry after the object was written or deleted through this process, a fetch already in flight
+     * still answers its callers but is not stored, as it may have read the old object
+     */
+    public synchronized void invalidate(String bucketName, String objectKey) {
+        String cacheKey = bucketName + '\n' + objectKey;
+        inFlight.remove(cacheKey);
+        remove(cacheKey);
+    }
+
+    private Entry fetch(String cacheKey, String bucketName, String objectKey, Entry cached, CompletableFuture<Entry> flight) throws IOException {
+        GetObjectRequest.Builder request = GetObjectRequest.builder().bucket(bucketName).key(objectKey);
+        if (cached != null) {
+            request.ifNoneMatch(cached.eTag);
+        }
+        try (ResponseInputStream<GetObjectResponse> in = reader.getObject(request.build())) {
+            GetObjectResponse response = in.response();
+            long size = contentSize(response);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("object of " + size + " bytes is too large to map, download it to a file instead");
+            }
+            InputStream content = S3Compression.decode(in, response.contentEncoding());
+            Entry entry = size >= 0 && size <= maxMemoryObjectSize ?
+                    new Entry(response.eTag(), readFully(content, (int) size), null, null) :
+                    mapToFile(content, response.eTag());
+            misses.increment();
+            bytesFetched.add(entry.size);
+            store(cacheKey, entry, flight);
+            return entry;
+        } catch (S3Exception e) {
+            if (cached != null && e.statusCode() == 304) {
+                cached.validatedAt = System.currentTimeMillis();
+                revalidations.increment();
+                hits.increment();
+                return cached;
+            }
+            if (e instanceof NoSuchKeyException || e.statusCode() == 404) {
+                remove(cacheKey);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * the decoded size, -1 when an encoded object does not carry its original size
+     */
+    private static long contentSize(GetObjectResponse response) {
+        if (!S3Compression.isDecodable(response.contentEncoding())) {
+            return response.contentLength();
+        }
+        String originalSize = response.hasMetadata() ? response.metadata().get(S3Compression.ORIGINAL_SIZE_METADATA) : null;
+        try {
+            return originalSize != null ? Long.parseLong(originalSize) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Entry mapToFile(InputStream in, String eTag) throws IOException {
+        Path file = directory.resolve(fileSequence.incrementAndGet() + FILE_SUFFIX);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Entry(eTag, null, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    private Entry lookup(String cacheKey) {
+        synchronized (this) {
+            Entry entry = memory.entries.get(cacheKey);
+            return entry != null ? entry : disk.entries.get(cacheKey);
+        }
+    }
+
+    /**
+     * an object larger than its whole tier, or fetched by a flight that was invalidated, is handed out once and not kept
+     */
+    private void store(String cacheKey, Entry entry, CompletableFuture<Entry> flight) {
+        Tier tier = entry.file == null ? memory : disk;
+        long budget = entry.file == null ? memorySize : diskSize;
+        synchronized (this) {
+            discard(memory.remove(cacheKey));
+            discard(disk.remove(cacheKey));
+            if (entry.size > budget || inFlight.get(cacheKey) != flight) {
+                discard(entry);
+                return;
+            }
+            tier.put(cacheKey, entry);
+            Iterator<Entry> eldest = tier.entries.values().iterator();
+            while (tier.bytes > budget && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                tier.bytes -= evicted.size;
+                evictions.increment();
+                discard(evicted);
+            }
+        }
+    }
+
+    private synchronized void remove(String cacheKey) {
+        discard(memory.remove(cacheKey));
+        discard(disk.remove(cacheKey));
+    }
+
+    /**
+     * a mapping stays readable after its file is deleted, so views already handed out keep working
+     */
+    private void discard(Entry entry) {
+        if (entry != null && entry.file != null) {
+            try {
+                Files.deleteIfExists(entry.file);
+            } catch (IOException e) {
+                log.warn("aws-s3 cache file delete error, {} : {}", entry.file, e.getMessage());
+            }
+        }
+    }
+
+    private ByteBuffer serve(Entry entry) {
+        hits.increment();
+        bytesServed.add(entry.size);
+        return entry.view();
+    }
+
+    private static Entry await(CompletableFuture<Entry> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("object cache fetch interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(bytes, offset, length - offset);
+            if (read < 0) {
+                throw new IOException("object ended after " + offset + " of " + length + " bytes");
+            }
+            offset += read;
+        }
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * stale entries confirmed by a 304, also counted as hits
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public long getBytesServed() {
+        return bytesServed.sum();
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memory.bytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return disk.bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Entry entry : disk.entries.values()) {
+            discard(entry);
+        }
+        memory.entries.clear();
+        disk.entries.clear();
+        memory.bytes = 0;
+        disk.bytes = 0;
+    }
+
+    private static class Tier {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        private void put(String cacheKey, Entry entry) {
+            entries.put(cacheKey, entry);
+            bytes += entry.size;
+        }
+
+        private Entry remove(String cacheKey) {
+            Entry entry = entries.remove(cacheKey);
+            if (entry != null) {
+                bytes -= entry.size;
+            }
+            return entry;
+        }
+    }
+
+    private static class Entry {
+        private final String eTag;
+        private final byte[] bytes;
+        private final MappedByteBuffer mapped;
+        private final Path file;
+        private final long size;
+        private volatile long validatedAt = System.currentTimeMillis();
+
+        private Entry(String eTag, byte[] bytes, MappedByteBuffer mapped, Path file) {
+            this.eTag = eTag;
+            this.bytes = bytes;
+            this.mapped = mapped;
+            this.file = file;
+            this.size = bytes != null ? bytes.length : mapped.capacity();
+        }
+
+        private ByteBuffer view() {
+            return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : mapped.asReadOnlyBuffer();
+        }
+    }
+}
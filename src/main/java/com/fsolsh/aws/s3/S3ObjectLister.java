@@ -0,0 +1,334 @@
+package com.fsolsh.aws.s3;
+
+import com.fsolsh.aws.support.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * lazy object listings, the next page is requested as soon as the current one arrives so the caller never
+ * waits on a round trip it could have overlapped, a listing holds two pages at most
+ * <p>
+ * a parallel scan lists several partitions of the key space at once and hands their pages to the caller through
+ * a bounded queue, so a slow consumer holds the listers back instead of piling up pages, the order of the keys
+ * is only kept within a partition
+ * <p>
+ * streams must be closed when they are not read to the end, that cancels the pending requests
+ */
+@Slf4j
+public class S3ObjectLister {
+
+    private static final Object END = new Object();
+
+    private final S3AsyncClient s3Async;
+    private final int concurrency;
+
+    public S3ObjectLister(S3AsyncClient s3Async, int concurrency) {
+        this.s3Async = s3Async;
+        this.concurrency = concurrency;
+    }
+
+    public Stream<S3Object> list(String bucketName, String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).build();
+        ObjectIterator objects = new ObjectIterator(new PageIterator(request));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(objects, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(objects::close);
+    }
+
+    public Stream<S3Object> scan(String bucketName, String prefix, S3ScanOptions options) {
+        boolean byDelimiter = options.getDelimiter() != null && !options.getDelimiter().isEmpty();
+        List<String> splitKeys = options.getSplitKeys() != null ? new ArrayList<>(options.getSplitKeys()) : new ArrayList<>();
+        if (!byDelimiter && splitKeys.isEmpty()) {
+            return list(bucketName, prefix);
+        }
+
+        int workers = Math.max(1, options.getConcurrency() > 0 ? options.getConcurrency() : concurrency);
+        int pageSize = Math.min(1000, Math.max(1, options.getPageSize()));
+        ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).maxKeys(pageSize).build();
+        Scan scan = new Scan(workers);
+        if (byDelimiter) {
+            scan.submit(() -> scanDelimited(scan, request.toBuilder().delimiter(options.getDelimiter()).build()));
+        } else {
+            splitKeys.sort(S3ObjectLister::compareKeys);
+            String lower = null;
+            for (String upper : splitKeys) {
+                String startAfter = lower;
+                scan.submit(() -> scanRange(scan, request.toBuilder().startAfter(startAfter).build(), upper));
+                lower = upper;
+            }
+            String startAfter = lower;
+            scan.submit(() -> scanRange(scan, request.toBuilder().startAfter(startAfter).build(), null));
+        }
+        scan.started();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scan, Spliterator.NONNULL), false).onClose(scan::close);
+    }
+
+    /**
+     * the objects right under the prefix come from the delimited listing itself, each common prefix becomes a partition
+     */
+    private void scanDelimited(Scan scan, ListObjectsV2Request request) throws InterruptedException {
+        try (PageIterator pages = new PageIterator(request)) {
+            while (pages.hasNext()) {
+                ListObjectsV2Response page = pages.next();
+                for (CommonPrefix commonPrefix : page.commonPrefixes()) {
+                    ListObjectsV2Request partition = request.toBuilder().prefix(commonPrefix.prefix()).delimiter(null).build();
+                    scan.submit(() -> scanRange(scan, partition, null));
+                }
+                scan.put(page.contents());
+            }
+        }
+    }
+
+    /**
+     * keys after the request's startAfter up to and including upper
+     */
+    private void scanRange(Scan scan, ListObjectsV2Request request, String upper) throws InterruptedException {
+        try (PageIterator pages = new PageIterator(request)) {
+            while (pages.hasNext()) {
+                List<S3Object> contents = pages.next().contents();
+                if (upper != null && !contents.isEmpty() && compareKeys(contents.get(contents.size() - 1).key(), upper) > 0) {
+                    List<S3Object> inRange = new ArrayList<>();
+                    for (S3Object object : contents) {
+                        if (compareKeys(object.key(), upper) > 0) {
+                            break;
+                        }
+                        inRange.add(object);
+                    }
+                    scan.put(inRange);
+                    return;
+                }
+                scan.put(contents);
+            }
+        }
+    }
+
+    /**
+     * s3 orders keys by their utf-8 bytes, which is code point order, String.compareTo differs above U+FFFF
+     */
+    static int compareKeys(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * waits interruptibly, so closing a scan also stops the partitions waiting on a page
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("listing interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * pages of one listing, the request for the next page goes out when the current page is handed over
+     */
+    private class PageIterator implements Iterator<ListObjectsV2Response>, AutoCloseable {
+        private final ListObjectsV2Request request;
+        private CompletableFuture<ListObjectsV2Response> next;
+
+        private PageIterator(ListObjectsV2Request request) {
+            this.request = request;
+            this.next = s3Async.listObjectsV2(request);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public ListObjectsV2Response next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            ListObjectsV2Response page = join(next);
+            next = Boolean.TRUE.equals(page.isTruncated()) && page.nextContinuationToken() != null ?
+                    s3Async.listObjectsV2(request.toBuilder().continuationToken(page.nextContinuationToken()).build()) :
+                    null;
+            return page;
+        }
+
+        @Override
+        public void close() {
+            if (next != null) {
+                next.cancel(true);
+                next = null;
+            }
+        }
+    }
+
+    private static class ObjectIterator implements Iterator<S3Object>, AutoCloseable {
+        private final PageIterator pages;
+        private Iterator<S3Object> current = Collections.emptyIterator();
+
+        private ObjectIterator(PageIterator pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (!pages.hasNext()) {
+                    return false;
+                }
+                current = pages.next().contents().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public S3Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            pages.close();
+        }
+    }
+
+    /**
+     * partitions run on their own pool and put whole pages into the queue, the last partition to finish puts END,
+     * a failed partition puts its exception, which ends the scan for the caller
+     */
+    private static class Scan implements Iterator<S3Object>, AutoCloseable {
+        private final ExecutorService executor;
+        private final BlockingQueue<Object> queue;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private Iterator<S3Object> current = Collections.emptyIterator();
+        private boolean done;
+
+        private Scan(int concurrency) {
+            this.executor = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("aws-s3-scan"));
+            this.queue = new ArrayBlockingQueue<>(2 * concurrency);
+        }
+
+        private void submit(Partition partition) {
+            pending.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        partition.run();
+                    } catch (InterruptedException | CancellationException e) {
+                        return;
+                    } catch (RuntimeException | Error e) {
+                        log.error("aws-s3 scan partition error", e);
+                        offer(e);
+                    }
+                    finished();
+                });
+            } catch (RejectedExecutionException e) {
+                // the scan was closed
+                pending.decrementAndGet();
+            }
+        }
+
+        /**
+         * the initial count of one keeps END out until every first-level partition is submitted
+         */
+        private void started() {
+            finished();
+        }
+
+        private void finished() {
+            if (pending.decrementAndGet() == 0) {
+                offer(END);
+            }
+        }
+
+        private void put(List<S3Object> page) throws InterruptedException {
+            if (!page.isEmpty()) {
+                queue.put(page);
+            }
+        }
+
+        private void offer(Object element) {
+            try {
+                queue.put(element);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (done) {
+                    return false;
+                }
+                Object element;
+                try {
+                    element = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException("bucket scan interrupted", e);
+                }
+                if (element == END) {
+                    close();
+                    return false;
+                }
+                if (element instanceof Throwable) {
+                    close();
+                    if (element instanceof Error) {
+                        throw (Error) element;
+                    }
+                    throw (RuntimeException) element;
+                }
+                current = ((List<S3Object>) element).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public S3Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Partition {
+        void run() throws InterruptedException;
+    }
+}
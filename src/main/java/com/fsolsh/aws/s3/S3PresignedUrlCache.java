@@ -0,0 +1,98 @@
+package com.fsolsh.aws.s3;
+
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * bounded lru cache of presigned urls keyed by bucket, key and duration, a url is handed out again until
+ * a safety margin before it expires, signing happens outside the lock
+ */
+public class S3PresignedUrlCache {
+
+    private final int maxSize;
+    private final Duration safetyMargin;
+    private final LinkedHashMap<String, CachedUrl> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public S3PresignedUrlCache(int maxSize, Duration safetyMargin) {
+        this.maxSize = maxSize;
+        this.safetyMargin = safetyMargin;
+        this.entries = new LinkedHashMap<String, CachedUrl>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUrl> eldest) {
+                if (size() > S3PresignedUrlCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public URL get(String bucketName, String objectKey, long durationInSeconds, Supplier<PresignedGetObjectRequest> signer) {
+        // a url that would be stale by the time it is cached is never worth caching
+        if (maxSize <= 0 || durationInSeconds <= safetyMargin.getSeconds()) {
+            misses.increment();
+            return signer.get().url();
+        }
+
+        String cacheKey = bucketName + '\n' + objectKey + '\n' + durationInSeconds;
+        Instant now = Instant.now();
+        synchronized (entries) {
+            CachedUrl entry = entries.get(cacheKey);
+            if (entry != null) {
+                if (now.isBefore(entry.reuseUntil)) {
+                    hits.increment();
+                    return entry.url;
+                }
+                entries.remove(cacheKey);
+            }
+        }
+
+        misses.increment();
+        PresignedGetObjectRequest presigned = signer.get();
+        CachedUrl entry = new CachedUrl(presigned.url(), presigned.expiration().minus(safetyMargin));
+        synchronized (entries) {
+            entries.put(cacheKey, entry);
+        }
+        return entry.url;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class CachedUrl {
+        private final URL url;
+        private final Instant reuseUntil;
+
+        private CachedUrl(URL url, Instant reuseUntil) {
+            this.url = url;
+            this.reuseUntil = reuseUntil;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.fsolsh.aws.s3;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * parallel download, the object is fetched as concurrent byte-range GETs and every range is read
+ * straight into a memory-mapped region of the target file at its own offset, the region is unmapped as soon as
+ * its range is written
+ * <p>
+ * every range is pinned to the etag seen by HeadObject, a 412 means the object was replaced during the download,
+ * that is not retried, the download fails at once and the partial file is removed
+ */
+@Slf4j
+public class S3RangedDownloader {
+
+    private static final int PRECONDITION_FAILED = 412;
+    private static final Unmapper UNMAPPER = Unmapper.lookup();
+
+    private final S3Client s3;
+    private final ExecutorService executor;
+    private final int rangeSize;
+    private final int rangeRetries;
+
+    public S3RangedDownloader(S3Client s3, ExecutorService executor, int rangeSize, int rangeRetries) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.rangeSize = rangeSize;
+        this.rangeRetries = Math.max(1, rangeRetries);
+    }
+
+    /**
+     * download into the target file, replacing it, a failed download removes the partial file, an object stored
+     * with a content encoding is fetched as a single stream and decoded into the file
+     *
+     * @return the object size in bytes, decoded
+     */
+    public long download(String bucketName, String objectKey, Path target) throws IOException {
+        HeadObjectResponse head = s3.headObject(HeadObjectRequest.builder().bucket(bucketName).key(objectKey).build());
+        if (S3Compression.isDecodable(head.contentEncoding())) {
+            return downloadDecoded(bucketName, objectKey, head, target);
+        }
+        long size = head.contentLength();
+
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<Future<?>> ranges = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            try {
+                file.setLength(size);
+                FileChannel channel = file.getChannel();
+                for (long offset = 0; offset < size; offset += rangeSize) {
+                    long start = offset;
+                    long length = Math.min(rangeSize, size - offset);
+                    // pin the version seen by headObject, so a concurrent overwrite fails instead of mixing contents
+                    GetObjectRequest request = GetObjectRequest.builder()
+                            .bucket(bucketName)
+                            .key(objectKey)
+                            .ifMatch(head.eTag())
+                            .range("bytes=" + start + "-" + (start + length - 1))
+                            .build();
+                    ranges.add(executor.submit(() -> {
+                        if (aborted.get()) {
+                            throw new CancellationException("download aborted");
+                        }
+                        downloadRange(request, channel, start, length, aborted);
+                        return null;
+                    }));
+                }
+                for (Future<?> range : ranges) {
+                    await(range);
+                }
+                channel.force(false);
+            } catch (IOException | RuntimeException | Error e) {
+                // let running ranges settle before the channel is closed under them
+                aborted.set(true);
+                settle(ranges);
+                throw e;
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        return size;
+    }
+
+    private long downloadDecoded(String bucketName, String objectKey, HeadObjectResponse head, Path target) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucketName).key(objectKey).ifMatch(head.eTag()).build();
+        try (ResponseInputStream<GetObjectResponse> in = s3.getObject(request);
+             InputStream decoded = S3Compression.decode(in, head.contentEncoding())) {
+            return Files.copy(decoded, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException | Error e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private void downloadRange(GetObjectRequest request, FileChannel channel, long start, long length, AtomicBoolean aborted) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                s3.getObject(request, (response, in) -> {
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+                    try {
+                        ReadableByteChannel source = Channels.newChannel(in);
+                        while (region.hasRemaining()) {
+                            if (source.read(region) < 0) {
+                                throw new EOFException("range " + request.range() + " ended early");
+                            }
+                        }
+                    } finally {
+                        UNMAPPER.unmap(region);
+                    }
+                    return null;
+                });
+                return;
+            } catch (SdkException | UncheckedIOException e) {
+                if (e instanceof S3Exception && ((S3Exception) e).statusCode() == PRECONDITION_FAILED) {
+                    log.error("getObject range error, key : {} changed during the download, etag : {}", request.key(), request.ifMatch());
+                    throw e;
+                }
+                if (attempt >= rangeRetries || aborted.get()) {
+                    throw e;
+                }
+                log.warn("getObject range retry {}/{}, key : {}, range : {}, cause : {}", attempt, rangeRetries, request.key(), request.range(), e.getMessage());
+                Thread.sleep(100L << Math.min(attempt, 6));
+            }
+        }
+    }
+
+    /**
+     * releases a mapping at once rather than whenever the gc collects it, through the jdk internals since java 8 has
+     * no api for it, a runtime that hides them leaves the mapping to the gc
+     */
+    private static class Unmapper {
+        private final Object unsafe;
+        private final Method invokeCleaner;
+        private final Method cleaner;
+
+        private Unmapper(Object unsafe, Method invokeCleaner, Method cleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+            this.cleaner = cleaner;
+        }
+
+        private static Unmapper lookup() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                // java 9 and later
+                return new Unmapper(theUnsafe.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class), null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                try {
+                    // java 8
+                    Method cleaner = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    return new Unmapper(null, null, cleaner);
+                } catch (ReflectiveOperationException | RuntimeException unavailable) {
+                    log.warn("aws-s3 mapped ranges are released by the gc only : {}", unavailable.getMessage());
+                    return new Unmapper(null, null, null);
+                }
+            }
+        }
+
+        /**
+         * the buffer must not be touched afterwards
+         */
+        private void unmap(MappedByteBuffer buffer) {
+            try {
+                if (invokeCleaner != null) {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } else if (cleaner != null) {
+                    Object bufferCleaner = cleaner.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.debug("aws-s3 unmap error : {}", e.getMessage());
+            }
+        }
+    }
+
+    private static void settle(List<Future<?>> ranges) {
+        for (Future<?> range : ranges) {
+            try {
+                range.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | CancellationException ignored) {
+                // already reported through the failing range
+            }
+        }
+    }
+
+    private static void await(Future<?> range) throws IOException {
+        try {
+            range.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("download interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
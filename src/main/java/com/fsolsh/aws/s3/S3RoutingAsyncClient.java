@@ -0,0 +1,53 @@
+package com.fsolsh.aws.s3;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * async counterpart of {@link S3RoutingClient}, the first request to a bucket of unknown region blocks
+ * on the region lookup, operations not listed here are not supported
+ */
+public class S3RoutingAsyncClient implements S3AsyncClient {
+
+    private final S3ClientRegistry registry;
+
+    public S3RoutingAsyncClient(S3ClientRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody requestBody) {
+        return registry.asyncClient(request.bucket()).putObject(request, requestBody);
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> getObject(GetObjectRequest request, AsyncResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        return registry.asyncClient(request.bucket()).getObject(request, responseTransformer);
+    }
+
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+        return registry.asyncClient(request.bucket()).headObject(request);
+    }
+
+    @Override
+    public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+        return registry.asyncClient(request.bucket()).listObjectsV2(request);
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    /**
+     * the clients belong to the registry
+     */
+    @Override
+    public void close() {
+    }
+}
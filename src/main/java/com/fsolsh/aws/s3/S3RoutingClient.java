@@ -0,0 +1,132 @@
+package com.fsolsh.aws.s3;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
+import software.amazon.awssdk.services.s3.waiters.S3Waiter;
+
+import java.util.function.Function;
+
+/**
+ * an S3Client that sends each request to the registry's client for its bucket, so the helpers built on a single
+ * client work across regions and accounts, operations not listed here are not supported
+ */
+public class S3RoutingClient implements S3Client {
+
+    private final S3ClientRegistry registry;
+
+    public S3RoutingClient(S3ClientRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        return route(request.bucket(), client -> client.putObject(request, requestBody));
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request, ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        return route(request.bucket(), client -> client.getObject(request, responseTransformer));
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        return route(request.bucket(), client -> client.headObject(request));
+    }
+
+    @Override
+    public HeadBucketResponse headBucket(HeadBucketRequest request) {
+        return route(request.bucket(), client -> client.headBucket(request));
+    }
+
+    @Override
+    public CreateBucketResponse createBucket(CreateBucketRequest request) {
+        return route(request.bucket(), client -> client.createBucket(request));
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest request) {
+        return route(request.destinationBucket(), client -> client.copyObject(request));
+    }
+
+    @Override
+    public UploadPartCopyResponse uploadPartCopy(UploadPartCopyRequest request) {
+        return route(request.bucket(), client -> client.uploadPartCopy(request));
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        return route(request.bucket(), client -> client.deleteObject(request));
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        return route(request.bucket(), client -> client.deleteObjects(request));
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        return route(request.bucket(), client -> client.listObjectsV2(request));
+    }
+
+    /**
+     * pages are fetched through this client, so each of them is routed too
+     */
+    @Override
+    public ListObjectsV2Iterable listObjectsV2Paginator(ListObjectsV2Request request) {
+        return new ListObjectsV2Iterable(this, request);
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        return route(request.bucket(), client -> client.createMultipartUpload(request));
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+        return route(request.bucket(), client -> client.uploadPart(request, requestBody));
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        return route(request.bucket(), client -> client.completeMultipartUpload(request));
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        return route(request.bucket(), client -> client.abortMultipartUpload(request));
+    }
+
+    @Override
+    public S3Waiter waiter() {
+        return S3Waiter.builder().client(this).build();
+    }
+
+    /**
+     * a redirect the cache did not know about is learnt and the request is sent once more to the right region
+     */
+    private <T> T route(String bucketName, Function<S3Client, T> call) {
+        try {
+            return call.apply(registry.client(bucketName));
+        } catch (S3Exception e) {
+            if (!registry.redirected(bucketName, e)) {
+                throw e;
+            }
+            return call.apply(registry.client(bucketName));
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    /**
+     * the clients belong to the registry
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,41 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * how a parallel scan splits the key space
+ * <ul>
+ * <li>delimiter : the prefix is listed with the delimiter, every common prefix found is scanned as its own partition</li>
+ * <li>splitKeys : ranges between sorted boundary keys, (previous boundary, boundary], used when no delimiter is set</li>
+ * </ul>
+ * without either the scan is a single prefetching listing
+ */
+@Data
+public class S3ScanOptions {
+
+    private String delimiter;
+    private List<String> splitKeys = new ArrayList<>();
+    /**
+     * partitions listed at once, 0 uses s3_list_concurrency
+     */
+    private int concurrency;
+    /**
+     * keys per ListObjectsV2 page, at most 1000
+     */
+    private int pageSize = 1000;
+
+    public static S3ScanOptions byDelimiter(String delimiter) {
+        S3ScanOptions options = new S3ScanOptions();
+        options.delimiter = delimiter;
+        return options;
+    }
+
+    public static S3ScanOptions bySplitKeys(List<String> splitKeys) {
+        S3ScanOptions options = new S3ScanOptions();
+        options.splitKeys = new ArrayList<>(splitKeys);
+        return options;
+    }
+}
@@ -0,0 +1,30 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * what a directory sync did with one file, path is null for a deleted orphan
+ */
+@Getter
+public class S3SyncFileResult {
+
+    private final String objectKey;
+    private final Path path;
+    private final Action action;
+    private final long size;
+    private final String error;
+
+    public S3SyncFileResult(String objectKey, Path path, Action action, long size, String error) {
+        this.objectKey = objectKey;
+        this.path = path;
+        this.action = action;
+        this.size = size;
+        this.error = error;
+    }
+
+    public enum Action {
+        UPLOADED, UNCHANGED, DELETED, FAILED
+    }
+}
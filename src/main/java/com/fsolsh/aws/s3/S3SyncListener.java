@@ -0,0 +1,10 @@
+package com.fsolsh.aws.s3;
+
+/**
+ * progress of a directory sync, total counts the local files plus the orphans to delete
+ */
+@FunctionalInterface
+public interface S3SyncListener {
+
+    void onFile(S3SyncFileResult result, int completed, int total);
+}
@@ -0,0 +1,106 @@
+package com.fsolsh.aws.s3;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * local record of the last sync, one tab separated line per object : size, mtime, etag and key,
+ * the file is rewritten as a whole once a sync is done
+ */
+@Slf4j
+class S3SyncManifest {
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    S3SyncManifest(Path file) throws IOException {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    String[] fields = line.split("\t", 4);
+                    if (fields.length != 4) {
+                        continue;
+                    }
+                    try {
+                        entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+                    } catch (NumberFormatException e) {
+                        // a line torn by a crash, the file is only a hint
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true when the file is as it was when the object was last synced with the given etag
+     */
+    boolean matches(String objectKey, long size, long lastModified, String eTag) {
+        Entry entry = entries.get(objectKey);
+        return entry != null && entry.size == size && entry.lastModified == lastModified && entry.eTag.equals(eTag);
+    }
+
+    void put(String objectKey, long size, long lastModified, String eTag) {
+        if (objectKey.indexOf('\n') < 0 && eTag.indexOf('\t') < 0) {
+            entries.put(objectKey, new Entry(size, lastModified, eTag));
+        }
+    }
+
+    /**
+     * drop the objects that are gone or failed, so a stale entry can not vouch for them
+     */
+    void retain(Iterable<String> objectKeys) {
+        Map<String, Entry> kept = new ConcurrentHashMap<>();
+        for (String objectKey : objectKeys) {
+            Entry entry = entries.get(objectKey);
+            if (entry != null) {
+                kept.put(objectKey, entry);
+            }
+        }
+        entries.clear();
+        entries.putAll(kept);
+    }
+
+    void save() {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (file.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    Entry value = entry.getValue();
+                    out.write(value.size + "\t" + value.lastModified + '\t' + value.eTag + '\t' + entry.getKey());
+                    out.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("aws-s3 sync manifest write error, {} : {}", file, e.getMessage());
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String eTag;
+
+        private Entry(long size, long lastModified, String eTag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+        }
+    }
+}
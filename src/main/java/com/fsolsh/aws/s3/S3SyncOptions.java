@@ -0,0 +1,32 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Data;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+
+import java.nio.file.Path;
+
+/**
+ * options of a directory sync, the defaults upload changed files privately and never delete anything
+ */
+@Data
+public class S3SyncOptions {
+
+    private ObjectCannedACL acl;
+    /**
+     * files uploaded at once, 0 uses s3_sync_concurrency
+     */
+    private int concurrency;
+    /**
+     * delete objects under the prefix that have no local file any more
+     */
+    private boolean deleteOrphans;
+    /**
+     * size, mtime and etag of every file of the last sync, lets an unchanged file be recognised without hashing it,
+     * kept out of the sync when it sits inside the directory
+     */
+    private Path manifestFile;
+    /**
+     * called from the worker threads once per file
+     */
+    private S3SyncListener listener;
+}
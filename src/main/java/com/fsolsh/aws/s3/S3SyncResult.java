@@ -0,0 +1,50 @@
+package com.fsolsh.aws.s3;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * outcome of a directory sync with one result per local file and deleted orphan
+ */
+@Getter
+public class S3SyncResult {
+
+    private final List<S3SyncFileResult> files;
+    private final long uploaded;
+    private final long unchanged;
+    private final long deleted;
+    private final long failed;
+    private final long bytesUploaded;
+
+    public S3SyncResult(List<S3SyncFileResult> files) {
+        this.files = Collections.unmodifiableList(files);
+        long uploaded = 0, unchanged = 0, deleted = 0, failed = 0, bytesUploaded = 0;
+        for (S3SyncFileResult file : files) {
+            switch (file.getAction()) {
+                case UPLOADED:
+                    uploaded++;
+                    bytesUploaded += file.getSize();
+                    break;
+                case UNCHANGED:
+                    unchanged++;
+                    break;
+                case DELETED:
+                    deleted++;
+                    break;
+                default:
+                    failed++;
+            }
+        }
+        this.uploaded = uploaded;
+        this.unchanged = unchanged;
+        this.deleted = deleted;
+        this.failed = failed;
+        this.bytesUploaded = bytesUploaded;
+    }
+
+    public boolean isSuccessful() {
+        return failed == 0;
+    }
+}
@@ -0,0 +1,97 @@
+package com.fsolsh.aws.ses;
+
+import com.fsolsh.aws.config.FileType;
+import com.fsolsh.aws.support.ByteBufferInputStream;
+import lombok.Getter;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * one attachment of a raw mail, the content is read when the message is encoded and never copied up front,
+ * except for an InputStream which can only be read once and is buffered
+ */
+@Getter
+public class MailAttachment {
+
+    private final String name;
+    private final FileType fileType;
+    private final DataSource dataSource;
+    private final long size;
+
+    private MailAttachment(String name, FileType fileType, DataSource dataSource, long size) {
+        this.name = name;
+        this.fileType = fileType;
+        this.dataSource = dataSource;
+        this.size = size;
+    }
+
+    public static MailAttachment of(String name, FileType fileType, byte[] content) {
+        return of(name, fileType, ByteBuffer.wrap(content));
+    }
+
+    public static MailAttachment of(String name, FileType fileType, ByteBuffer content) {
+        ByteBuffer view = content.slice();
+        return new MailAttachment(name, fileType, new Source(name, fileType) {
+            @Override
+            public InputStream getInputStream() {
+                return new ByteBufferInputStream(view);
+            }
+        }, view.remaining());
+    }
+
+    public static MailAttachment of(String name, FileType fileType, Path path) throws IOException {
+        return new MailAttachment(name, fileType, new Source(name, fileType) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return Files.newInputStream(path);
+            }
+        }, Files.size(path));
+    }
+
+    /**
+     * the stream is read to the end here, the caller closes it
+     */
+    public static MailAttachment of(String name, FileType fileType, InputStream content) throws IOException {
+        byte[] buffer = new byte[8192];
+        int length = 0;
+        for (int read; (read = content.read(buffer, length, buffer.length - length)) >= 0; ) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return of(name, fileType, ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    private abstract static class Source implements DataSource {
+        private final String name;
+        private final FileType fileType;
+
+        private Source(String name, FileType fileType) {
+            this.name = name;
+            this.fileType = fileType;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("read-only attachment : " + name);
+        }
+
+        @Override
+        public String getContentType() {
+            return fileType.getMiniType();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.fsolsh.aws.ses;
+
+import com.fsolsh.aws.support.NamedThreadFactory;
+import com.fsolsh.aws.support.TokenBucket;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.ses.SesClient;
+import software.amazon.awssdk.services.ses.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * fans mail jobs out to a worker pool at the account's send rate, the rate is read from GetSendQuota,
+ * cut in half on throttling and recovered step by step, queued template jobs that share a template
+ * are grouped into SendBulkTemplatedEmail calls of up to 50 destinations
+ */
+@Slf4j
+public class SesBulkMailDispatcher implements AutoCloseable {
+
+    public static final int MAX_BULK_DESTINATIONS = 50;
+    private static final int BATCH_SCAN_LIMIT = 1000;
+    private static final long QUOTA_REFRESH_MINUTES = 10;
+    private static final double MIN_RATE = 1;
+
+    private final SesClient client;
+    private final BlockingQueue<SesMailJob> queue;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+    private final TokenBucket tokenBucket;
+    private final int maxRetries;
+    private volatile double quotaRate;
+    private volatile boolean running = true;
+
+    public SesBulkMailDispatcher(SesClient client, int queueCapacity, int workerCount, int maxRetries) {
+        this.client = client;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxRetries = Math.max(1, maxRetries);
+        this.quotaRate = readQuotaRate(MIN_RATE);
+        this.tokenBucket = new TokenBucket(quotaRate);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("aws-ses-quota"));
+        this.scheduler.scheduleWithFixedDelay(this::refreshQuota, QUOTA_REFRESH_MINUTES, QUOTA_REFRESH_MINUTES, TimeUnit.MINUTES);
+        this.workers = Executors.newFixedThreadPool(workerCount, new NamedThreadFactory("aws-ses-dispatcher"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * queue a job, blocks while the queue is full
+     *
+     * @return the job result, completing with the ses message id
+     */
+    public CompletableFuture<String> submit(SesMailJob job) throws InterruptedException {
+        if (!running) {
+            throw new RejectedExecutionException("aws-ses dispatcher is closed");
+        }
+        queue.put(job);
+        return job.getResult();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public double getSendRate() {
+        return tokenBucket.getRate();
+    }
+
+    private void work() {
+        while (running || !queue.isEmpty()) {
+            try {
+                SesMailJob job = queue.poll(1, TimeUnit.SECONDS);
+                if (job != null) {
+                    List<SesMailJob> batch = Collections.singletonList(job);
+                    try {
+                        batch = collectBatch(job);
+                        send(batch);
+                    } catch (InterruptedException e) {
+                        // completing an already completed job is a no-op, only unsent jobs are failed
+                        fail(batch, new CancellationException("aws-ses dispatcher closed"));
+                        throw e;
+                    } catch (RuntimeException e) {
+                        fail(batch, e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("aws-ses dispatcher worker error", e);
+            }
+        }
+    }
+
+    /**
+     * claim queued jobs that can share the bulk call, queue.remove decides which worker owns a job
+     */
+    private List<SesMailJob> collectBatch(SesMailJob first) {
+        List<SesMailJob> batch = new ArrayList<>();
+        batch.add(first);
+        if (!first.isTemplated()) {
+            return batch;
+        }
+        Iterator<SesMailJob> candidates = queue.iterator();
+        for (int scanned = 0; candidates.hasNext() && scanned < BATCH_SCAN_LIMIT && batch.size() < MAX_BULK_DESTINATIONS; scanned++) {
+            SesMailJob candidate = candidates.next();
+            if (first.canShareBatchWith(candidate) && queue.remove(candidate)) {
+                batch.add(candidate);
+            }
+        }
+        return batch;
+    }
+
+    private void send(List<SesMailJob> batch) throws InterruptedException {
+        List<SesMailJob> pending = batch;
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            boolean lastAttempt = attempt >= maxRetries;
+            try {
+                tokenBucket.acquire(pending.size());
+                pending = pending.get(0).isTemplated() ? sendTemplated(pending, lastAttempt) : sendContent(pending.get(0));
+            } catch (SdkException e) {
+                if (!isThrottling(e) || lastAttempt) {
+                    fail(pending, e);
+                    return;
+                }
+            }
+            if (pending.isEmpty()) {
+                recover();
+            } else {
+                throttled();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private List<SesMailJob> sendContent(SesMailJob job) {
+        Content content = Content.builder().data(job.getBody()).build();
+        Body body = job.isHtml() ? Body.builder().html(content).build() : Body.builder().text(content).build();
+        Message msg = Message.builder().subject(Content.builder().data(job.getSubject()).build()).body(body).build();
+        SendEmailRequest emailRequest = SendEmailRequest.builder()
+                .destination(Destination.builder().toAddresses(job.getRecipient()).build())
+                .message(msg)
+                .source(job.getSender())
+                .build();
+        SendEmailResponse response = client.sendEmail(emailRequest);
+        job.getResult().complete(response.messageId());
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return the destinations that were throttled or failed transiently and should be sent again
+     */
+    private List<SesMailJob> sendTemplated(List<SesMailJob> batch, boolean lastAttempt) {
+        SesMailJob first = batch.get(0);
+        List<BulkEmailDestination> destinations = new ArrayList<>(batch.size());
+        for (SesMailJob job : batch) {
+            destinations.add(BulkEmailDestination.builder()
+                    .destination(Destination.builder().toAddresses(job.getRecipient()).build())
+                    .replacementTemplateData(job.getTemplateData())
+                    .build());
+        }
+        SendBulkTemplatedEmailRequest request = SendBulkTemplatedEmailRequest.builder()
+                .source(first.getSender())
+                .template(first.getTemplateName())
+                .defaultTemplateData(first.getDefaultTemplateData())
+                .destinations(destinations)
+                .build();
+        List<BulkEmailDestinationStatus> statuses = client.sendBulkTemplatedEmail(request).status();
+
+        List<SesMailJob> retry = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            SesMailJob job = batch.get(i);
+            BulkEmailDestinationStatus status = i < statuses.size() ? statuses.get(i) : null;
+            if (status != null && status.status() == BulkEmailStatus.SUCCESS) {
+                job.getResult().complete(status.messageId());
+            } else if (status != null && !lastAttempt
+                    && (status.status() == BulkEmailStatus.ACCOUNT_THROTTLED || status.status() == BulkEmailStatus.TRANSIENT_FAILURE)) {
+                retry.add(job);
+            } else {
+                String reason = status != null ? status.statusAsString() + " : " + status.error() : "no status returned";
+                log.error("sendBulkTemplatedEmail error to : {}, {}", job.getRecipient(), reason);
+                job.getResult().completeExceptionally(new RuntimeException("aws-ses bulk send failed, " + reason));
+            }
+        }
+        log.info("sendBulkTemplatedEmail template : {}, destinations : {}, retry : {}", first.getTemplateName(), batch.size(), retry.size());
+        return retry;
+    }
+
+    private static boolean isThrottling(SdkException e) {
+        if (e instanceof AwsServiceException) {
+            AwsServiceException serviceException = (AwsServiceException) e;
+            return serviceException.isThrottlingException()
+                    || (serviceException.awsErrorDetails() != null && "Throttling".equals(serviceException.awsErrorDetails().errorCode()));
+        }
+        return false;
+    }
+
+    private void throttled() {
+        double rate = Math.max(MIN_RATE, tokenBucket.getRate() / 2);
+        tokenBucket.setRate(rate);
+        log.warn("aws-ses throttled, send rate lowered to {}/s", rate);
+    }
+
+    private void recover() {
+        double rate = tokenBucket.getRate();
+        if (rate < quotaRate) {
+            tokenBucket.setRate(Math.min(quotaRate, rate + quotaRate / 20));
+        }
+    }
+
+    /**
+     * exponential backoff with full jitter, capped at 20 seconds
+     */
+    private static void backoff(int attempt) throws InterruptedException {
+        long cap = Math.min(20_000L, 200L << Math.min(attempt, 10));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(cap / 2, cap + 1));
+    }
+
+    private void refreshQuota() {
+        double rate = readQuotaRate(quotaRate);
+        if (rate != quotaRate) {
+            log.info("aws-ses max send rate changed from {}/s to {}/s", quotaRate, rate);
+            quotaRate = rate;
+            tokenBucket.setRate(Math.min(tokenBucket.getRate(), rate));
+        }
+    }
+
+    private double readQuotaRate(double fallback) {
+        try {
+            Double maxSendRate = client.getSendQuota().maxSendRate();
+            return maxSendRate != null && maxSendRate > 0 ? maxSendRate : fallback;
+        } catch (SdkException e) {
+            log.warn("getSendQuota error, keep send rate {}/s, cause : {}", fallback, e.getMessage());
+            return fallback;
+        }
+    }
+
+    private static void fail(List<SesMailJob> jobs, Throwable cause) {
+        log.error("aws-ses dispatch error, jobs : {}", jobs.size(), cause);
+        for (SesMailJob job : jobs) {
+            job.getResult().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * stop accepting jobs and drain the queue for up to 30 seconds, jobs left over are failed
+     */
+    @Override
+    public void close() {
+        running = false;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+        List<SesMailJob> leftOver = new ArrayList<>();
+        queue.drainTo(leftOver);
+        if (!leftOver.isEmpty()) {
+            fail(leftOver, new CancellationException("aws-ses dispatcher closed"));
+        }
+    }
+}
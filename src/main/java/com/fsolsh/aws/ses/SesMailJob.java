@@ -0,0 +1,68 @@
+package com.fsolsh.aws.ses;
+
+import lombok.Getter;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * one recipient of a dispatched mail, either inline content or a stored ses template,
+ * the result completes with the ses message id
+ */
+@Getter
+public class SesMailJob {
+
+    private static final String EMPTY_TEMPLATE_DATA = "{}";
+
+    private final String sender;
+    private final String recipient;
+    private final String subject;
+    private final String body;
+    private final boolean html;
+    private final String templateName;
+    private final String defaultTemplateData;
+    private final String templateData;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    private SesMailJob(String sender, String recipient, String subject, String body, boolean html, String templateName, String defaultTemplateData, String templateData) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+        this.html = html;
+        this.templateName = templateName;
+        this.defaultTemplateData = defaultTemplateData;
+        this.templateData = templateData;
+    }
+
+    public static SesMailJob text(String sender, String recipient, String subject, String bodyText) {
+        return new SesMailJob(sender, recipient, subject, bodyText, false, null, null, null);
+    }
+
+    public static SesMailJob html(String sender, String recipient, String subject, String bodyHTML) {
+        return new SesMailJob(sender, recipient, subject, bodyHTML, true, null, null, null);
+    }
+
+    /**
+     * templated jobs with the same sender, template and default data are sent together through SendBulkTemplatedEmail
+     */
+    public static SesMailJob template(String sender, String recipient, String templateName, String templateData) {
+        return template(sender, recipient, templateName, EMPTY_TEMPLATE_DATA, templateData);
+    }
+
+    public static SesMailJob template(String sender, String recipient, String templateName, String defaultTemplateData, String templateData) {
+        return new SesMailJob(sender, recipient, null, null, false, templateName,
+                defaultTemplateData != null ? defaultTemplateData : EMPTY_TEMPLATE_DATA, templateData != null ? templateData : EMPTY_TEMPLATE_DATA);
+    }
+
+    public boolean isTemplated() {
+        return templateName != null;
+    }
+
+    boolean canShareBatchWith(SesMailJob other) {
+        return isTemplated() && other.isTemplated()
+                && Objects.equals(sender, other.sender)
+                && templateName.equals(other.templateName)
+                && defaultTemplateData.equals(other.defaultTemplateData);
+    }
+}
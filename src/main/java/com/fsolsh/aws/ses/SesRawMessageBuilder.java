@@ -0,0 +1,118 @@
+package com.fsolsh.aws.ses;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * assembles raw mime messages for SendRawEmail, the mail session is shared and the multipart body is built
+ * and encoded once per mail, each recipient's message is its own headers followed by those encoded bytes,
+ * assembled into an array of the exact size
+ */
+public class SesRawMessageBuilder {
+
+    private static final Session SESSION = Session.getInstance(new Properties());
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int HEADER_SIZE = 1024;
+    private static final int PART_ALLOWANCE = 512;
+
+    private final MimeMultipart multipart;
+    private final Buffer content;
+
+    public SesRawMessageBuilder(String body, boolean html, List<MailAttachment> attachments) throws MessagingException, IOException {
+        this.multipart = new MimeMultipart();
+
+        MimeBodyPart bodyPart = new MimeBodyPart();
+        bodyPart.setContent(body, html ? "text/html; charset=UTF-8" : "text/plain; charset=UTF-8");
+        multipart.addBodyPart(bodyPart);
+
+        // utf-8 text ends up quoted-printable or base64, attachments base64 with a line break every 76 chars
+        long size = PART_ALLOWANCE + utf8Length(body) * 3L / 2;
+        for (MailAttachment attachment : attachments) {
+            MimeBodyPart attachmentPart = new MimeBodyPart();
+            attachmentPart.setFileName(attachment.getName());
+            attachmentPart.setDataHandler(new DataHandler(attachment.getDataSource()));
+            multipart.addBodyPart(attachmentPart);
+            size += PART_ALLOWANCE + (attachment.getSize() + 2) / 3 * 4 * 78 / 76;
+        }
+
+        // saving a message sets the transfer encoding of every part, which the encoded parts depend on
+        MimeMessage template = new MimeMessage(SESSION);
+        template.setContent(multipart);
+        template.saveChanges();
+        this.content = new Buffer((int) Math.min(Integer.MAX_VALUE - 8, size));
+        multipart.writeTo(content);
+    }
+
+    /**
+     * the same bytes MimeMessage.writeTo produces, without encoding the parts again
+     */
+    public SdkBytes build(String sender, String recipient, String subject) throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(SESSION);
+        message.setSubject(subject, "UTF-8");
+        message.setFrom(new InternetAddress(sender));
+        message.setRecipients(javax.mail.Message.RecipientType.TO, recipient);
+        message.setContent(multipart);
+        message.saveChanges();
+
+        Buffer headers = new Buffer(HEADER_SIZE);
+        for (Enumeration<String> lines = message.getAllHeaderLines(); lines.hasMoreElements(); ) {
+            // header lines are ascii once encoded
+            headers.write(lines.nextElement().getBytes(StandardCharsets.ISO_8859_1));
+            headers.write(CRLF);
+        }
+        headers.write(CRLF);
+
+        byte[] raw = new byte[headers.size() + content.size()];
+        headers.copyTo(raw, 0);
+        content.copyTo(raw, headers.size());
+        return SdkBytes.fromByteArrayUnsafe(raw);
+    }
+
+    /**
+     * utf-8 length of the text, without encoding it
+     */
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * copies out what was written without trimming its buffer first
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private void copyTo(byte[] target, int offset) {
+            System.arraycopy(buf, 0, target, offset, count);
+        }
+    }
+}
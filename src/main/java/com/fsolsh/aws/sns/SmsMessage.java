@@ -0,0 +1,28 @@
+package com.fsolsh.aws.sns;
+
+import lombok.Getter;
+
+/**
+ * one (message, phone number) pair of a bulk send
+ */
+@Getter
+public class SmsMessage {
+
+    private final String message;
+    private final String phoneNumber;
+    private final SmsType type;
+
+    public SmsMessage(String message, String phoneNumber, SmsType type) {
+        this.message = message;
+        this.phoneNumber = phoneNumber;
+        this.type = type;
+    }
+
+    public static SmsMessage transactional(String message, String phoneNumber) {
+        return new SmsMessage(message, phoneNumber, SmsType.TRANSACTIONAL);
+    }
+
+    public static SmsMessage promotional(String message, String phoneNumber) {
+        return new SmsMessage(message, phoneNumber, SmsType.PROMOTIONAL);
+    }
+}
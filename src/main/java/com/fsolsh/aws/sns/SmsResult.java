@@ -0,0 +1,32 @@
+package com.fsolsh.aws.sns;
+
+import lombok.Getter;
+
+/**
+ * per-recipient outcome, either the sns message id or the error that stopped the send
+ */
+@Getter
+public class SmsResult {
+
+    private final String phoneNumber;
+    private final String messageId;
+    private final String error;
+
+    private SmsResult(String phoneNumber, String messageId, String error) {
+        this.phoneNumber = phoneNumber;
+        this.messageId = messageId;
+        this.error = error;
+    }
+
+    public static SmsResult success(String phoneNumber, String messageId) {
+        return new SmsResult(phoneNumber, messageId, null);
+    }
+
+    public static SmsResult failure(String phoneNumber, String error) {
+        return new SmsResult(phoneNumber, null, error);
+    }
+
+    public boolean isSuccess() {
+        return messageId != null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.fsolsh.aws.sns;
+
+/**
+ * sms lane, transactional traffic (otp, alerts) is never queued behind promotional traffic
+ */
+public enum SmsType {
+    TRANSACTIONAL("Transactional"),
+    PROMOTIONAL("Promotional");
+
+    String attributeValue;
+
+    SmsType(String attributeValue) {
+        this.attributeValue = attributeValue;
+    }
+
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+}
@@ -0,0 +1,227 @@
+package com.fsolsh.aws.sns;
+
+import com.fsolsh.aws.support.NamedThreadFactory;
+import com.fsolsh.aws.support.TokenBucket;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sns.SnsClient;
+import software.amazon.awssdk.services.sns.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sns.model.PublishRequest;
+import software.amazon.awssdk.services.sns.model.PublishResponse;
+import software.amazon.awssdk.utils.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * bulk sms pipeline, transactional and promotional messages run in separate lanes with their own
+ * workers so otp traffic never waits behind a marketing send, every publish is paced by the account
+ * rate and by the rate of the destination country, promotional traffic only gets a share of the account rate
+ */
+@Slf4j
+public class SnsSmsSender implements AutoCloseable {
+
+    private static final String SMS_TYPE_ATTRIBUTE = "AWS.SNS.SMS.SMSType";
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final SnsClient snsClient;
+    private final TokenBucket accountBucket;
+    private final Map<String, TokenBucket> countryBuckets = new HashMap<>();
+    private final Lane transactional;
+    private final Lane promotional;
+    private volatile boolean running = true;
+
+    /**
+     * @param countryRates max sends per second keyed by calling-code prefix without '+', e.g. "86" or "1"
+     */
+    public SnsSmsSender(SnsClient snsClient, double accountRate, Map<String, Double> countryRates, double promotionalRateShare,
+                        int transactionalConcurrency, int promotionalConcurrency, int queueCapacity) {
+        this.snsClient = snsClient;
+        this.accountBucket = new TokenBucket(accountRate);
+        if (countryRates != null) {
+            countryRates.forEach((prefix, rate) -> countryBuckets.put(prefix, new TokenBucket(rate)));
+        }
+        this.transactional = new Lane(SmsType.TRANSACTIONAL, null, transactionalConcurrency, queueCapacity);
+        this.promotional = new Lane(SmsType.PROMOTIONAL, new TokenBucket(accountRate * promotionalRateShare), promotionalConcurrency, queueCapacity);
+    }
+
+    /**
+     * the one normalisation rule for sms numbers, a missing '+' is added
+     */
+    public static String normalizePhoneNumber(String phoneNumber) {
+        return phoneNumber.startsWith("+") ? phoneNumber : "+".concat(phoneNumber);
+    }
+
+    /**
+     * queue one message, blocks while its lane is full, the result never completes exceptionally
+     */
+    public CompletableFuture<SmsResult> send(SmsMessage message) throws InterruptedException {
+        if (!running) {
+            throw new RejectedExecutionException("aws-sns sms sender is closed");
+        }
+        if (StringUtils.isEmpty(message.getPhoneNumber())) {
+            return CompletableFuture.completedFuture(SmsResult.failure(message.getPhoneNumber(), "empty phone number"));
+        }
+        Task task = new Task(message, normalizePhoneNumber(message.getPhoneNumber()));
+        (message.getType() == SmsType.PROMOTIONAL ? promotional : transactional).queue.put(task);
+        return task.result;
+    }
+
+    /**
+     * send every message and wait for all of them
+     *
+     * @return per-recipient results in the order of the input
+     */
+    public List<SmsResult> sendAll(Collection<SmsMessage> messages) throws InterruptedException {
+        List<CompletableFuture<SmsResult>> futures = new ArrayList<>(messages.size());
+        for (SmsMessage message : messages) {
+            futures.add(send(message));
+        }
+        List<SmsResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<SmsResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("sms result future failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private SmsResult publish(Task task, TokenBucket laneBucket) throws InterruptedException {
+        TokenBucket countryBucket = countryBucket(task.phoneNumber);
+        PublishRequest request = PublishRequest.builder()
+                .message(task.message.getMessage())
+                .phoneNumber(task.phoneNumber)
+                .messageAttributes(Collections.singletonMap(SMS_TYPE_ATTRIBUTE, MessageAttributeValue.builder()
+                        .dataType("String")
+                        .stringValue(task.message.getType().getAttributeValue())
+                        .build()))
+                .build();
+        for (int attempt = 1; ; attempt++) {
+            if (laneBucket != null) {
+                laneBucket.acquire(1);
+            }
+            if (countryBucket != null) {
+                countryBucket.acquire(1);
+            }
+            accountBucket.acquire(1);
+            try {
+                PublishResponse response = snsClient.publish(request);
+                log.info("sendTextSMS success to : {}", task.phoneNumber);
+                return SmsResult.success(task.phoneNumber, response.messageId());
+            } catch (SdkException e) {
+                if (attempt >= MAX_ATTEMPTS || !isThrottling(e)) {
+                    log.error("sendTextSMS error to : {}", task.phoneNumber, e);
+                    return SmsResult.failure(task.phoneNumber, e.getMessage());
+                }
+                Thread.sleep(ThreadLocalRandom.current().nextLong(100L << attempt, 200L << attempt));
+            }
+        }
+    }
+
+    /**
+     * longest calling-code prefix wins, "+1876" picks a "1876" limit over a "1" limit
+     */
+    private TokenBucket countryBucket(String phoneNumber) {
+        if (countryBuckets.isEmpty()) {
+            return null;
+        }
+        String digits = phoneNumber.substring(1);
+        for (int length = Math.min(4, digits.length()); length > 0; length--) {
+            TokenBucket bucket = countryBuckets.get(digits.substring(0, length));
+            if (bucket != null) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isThrottling(SdkException e) {
+        if (e instanceof AwsServiceException) {
+            AwsServiceException serviceException = (AwsServiceException) e;
+            return serviceException.isThrottlingException()
+                    || (serviceException.awsErrorDetails() != null && "Throttling".equals(serviceException.awsErrorDetails().errorCode()));
+        }
+        return false;
+    }
+
+    /**
+     * stop accepting messages and drain both lanes for up to 30 seconds, messages left over fail
+     */
+    @Override
+    public void close() {
+        running = false;
+        transactional.close();
+        promotional.close();
+    }
+
+    private static class Task {
+        private final SmsMessage message;
+        private final String phoneNumber;
+        private final CompletableFuture<SmsResult> result = new CompletableFuture<>();
+
+        private Task(SmsMessage message, String phoneNumber) {
+            this.message = message;
+            this.phoneNumber = phoneNumber;
+        }
+    }
+
+    private class Lane {
+        private final BlockingQueue<Task> queue;
+        private final ExecutorService workers;
+        private final TokenBucket laneBucket;
+
+        private Lane(SmsType type, TokenBucket laneBucket, int concurrency, int queueCapacity) {
+            this.laneBucket = laneBucket;
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+            this.workers = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("aws-sns-" + type.name().toLowerCase()));
+            for (int i = 0; i < concurrency; i++) {
+                workers.execute(this::work);
+            }
+        }
+
+        private void work() {
+            while (running || !queue.isEmpty()) {
+                Task task;
+                try {
+                    task = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.result.complete(publish(task, laneBucket));
+                } catch (InterruptedException e) {
+                    task.result.complete(SmsResult.failure(task.phoneNumber, "aws-sns sms sender closed"));
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("sendTextSMS error to : {}", task.phoneNumber, e);
+                    task.result.complete(SmsResult.failure(task.phoneNumber, e.getMessage()));
+                }
+            }
+        }
+
+        private void close() {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            List<Task> leftOver = new ArrayList<>();
+            queue.drainTo(leftOver);
+            for (Task task : leftOver) {
+                task.result.complete(SmsResult.failure(task.phoneNumber, "aws-sns sms sender closed"));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.fsolsh.aws.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * compresses a source stream as it is read, as gzip or as zlib (http "deflate"), so the compressed form is
+ * never held as a whole, closing it releases the deflater but leaves the source open
+ */
+public class CompressingInputStream extends InputStream {
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final DeflaterInputStream body;
+    private final boolean gzip;
+    private byte[] pending;
+    private int pendingOffset;
+    private boolean bodyDone;
+    private boolean trailerDone;
+
+    public CompressingInputStream(InputStream source, boolean gzip, int level) {
+        this.gzip = gzip;
+        this.deflater = new Deflater(level, gzip);
+        this.body = new DeflaterInputStream(gzip ? new CheckedInputStream(source, crc) : source, deflater, 64 * 1024);
+        this.pending = gzip ? GZIP_HEADER.clone() : new byte[0];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            if (pendingOffset < pending.length) {
+                int count = Math.min(length, pending.length - pendingOffset);
+                System.arraycopy(pending, pendingOffset, bytes, offset, count);
+                pendingOffset += count;
+                return count;
+            }
+            if (!bodyDone) {
+                int count = body.read(bytes, offset, length);
+                if (count > 0) {
+                    return count;
+                }
+                if (count < 0) {
+                    bodyDone = true;
+                }
+                continue;
+            }
+            if (gzip && !trailerDone) {
+                trailerDone = true;
+                pending = trailer();
+                pendingOffset = 0;
+                continue;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * crc-32 and size of the uncompressed data, both little-endian
+     */
+    private byte[] trailer() {
+        long value = crc.getValue();
+        long size = deflater.getBytesRead();
+        byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (value >>> (8 * i));
+            trailer[4 + i] = (byte) (size >>> (8 * i));
+        }
+        return trailer;
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+}
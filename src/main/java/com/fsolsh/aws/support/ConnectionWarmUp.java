@@ -0,0 +1,54 @@
+package com.fsolsh.aws.support;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * opens pooled connections by making a cheap call from that many threads at once, so each call needs a connection
+ * of its own and the pool keeps them afterwards, error answers still leave an open connection and are ignored
+ */
+@Slf4j
+public final class ConnectionWarmUp {
+
+    private ConnectionWarmUp() {
+    }
+
+    public static void open(String service, int connections, Runnable call) {
+        if (connections <= 0) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(connections, new NamedThreadFactory("aws-warmup-" + service));
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                calls.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        call.run();
+                    } catch (SdkException e) {
+                        log.debug("aws-{} warm-up call answered with : {}", service, e.getMessage());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : calls) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("aws-{} warm-up connect failed : {}", service, e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
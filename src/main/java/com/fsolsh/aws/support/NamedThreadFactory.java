@@ -0,0 +1,24 @@
+package com.fsolsh.aws.support;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * daemon threads named {@code prefix-N}, so background aws work never blocks jvm shutdown
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + sequence.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,60 @@
+package com.fsolsh.aws.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * token bucket pacing calls to a rate, a caller reserves its permits up front and sleeps off the debt,
+ * so concurrent callers are spread evenly and a burst of up to one second of permits passes at once
+ */
+public class TokenBucket {
+
+    private double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = ratePerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * take the permits only if they are available right now
+     */
+    public synchronized boolean tryAcquire(int permits) {
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+
+    public synchronized double getRate() {
+        return ratePerSecond;
+    }
+
+    public synchronized void setRate(double ratePerSecond) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = Math.min(tokens, ratePerSecond);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(ratePerSecond, tokens + (now - lastRefillNanos) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
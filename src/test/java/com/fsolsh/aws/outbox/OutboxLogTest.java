@@ -0,0 +1,155 @@
+package com.fsolsh.aws.outbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void uncommittedRecordsAreReplayedAfterACrash() throws IOException {
+        Path crashed = directory.resolve("crashed");
+        try (OutboxLog log = new OutboxLog(directory.resolve("live"), SEGMENT_SIZE, false)) {
+            log.append(bytes("one"));
+            log.append(bytes("two"));
+            log.append(bytes("three"));
+            log.commit(log.read(log.getCommittedOffset(), 1).get(0).getNextOffset());
+            // the files as a killed process leaves them, never closed
+            copy(directory.resolve("live"), crashed);
+        }
+
+        try (OutboxLog log = new OutboxLog(crashed, SEGMENT_SIZE, false)) {
+            assertEquals(Arrays.asList("two", "three"), payloads(log.read(log.getCommittedOffset(), 10)));
+        }
+    }
+
+    @Test
+    void tornRecordIsDroppedOnReplay() throws IOException {
+        long end;
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            log.append(bytes("one"));
+            log.append(bytes("two"));
+            end = log.getEndOffset();
+        }
+        // a header whose payload never made it to the page cache
+        try (FileChannel segment = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            segment.write((ByteBuffer) ByteBuffer.allocate(8).putInt(100).putInt(12345).flip(), end);
+        }
+
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            assertEquals(end, log.getEndOffset());
+            log.append(bytes("three"));
+            assertEquals(Arrays.asList("one", "two", "three"), payloads(log.read(log.getCommittedOffset(), 10)));
+        }
+    }
+
+    @Test
+    void tornCommittedOffsetReplaysEverything() throws IOException {
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            log.append(bytes("one"));
+            log.append(bytes("two"));
+            log.commit(log.getEndOffset());
+        }
+        try (FileChannel committed = FileChannel.open(directory.resolve("committed.offset"), StandardOpenOption.WRITE)) {
+            committed.write((ByteBuffer) ByteBuffer.allocate(8).putLong(7).flip(), 0);
+        }
+
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            assertEquals(0, log.getCommittedOffset());
+            assertEquals(Arrays.asList("one", "two"), payloads(log.read(log.getCommittedOffset(), 10)));
+        }
+    }
+
+    @Test
+    void recordsSpanSegmentsAndCommittedSegmentsAreDeleted() throws IOException {
+        List<String> appended = new ArrayList<>();
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 100; i++) {
+                String payload = "record-" + i + "-" + new String(new char[100]).replace('\0', 'x');
+                log.append(bytes(payload));
+                appended.add(payload);
+            }
+            assertTrue(segmentCount() > 2);
+            assertEquals(appended, payloads(log.read(log.getCommittedOffset(), 1000)));
+
+            List<OutboxLog.Record> records = log.read(log.getCommittedOffset(), 1000);
+            log.commit(records.get(98).getNextOffset());
+            assertEquals(1, segmentCount());
+            assertEquals(Arrays.asList(appended.get(99)), payloads(log.read(log.getCommittedOffset(), 1000)));
+        }
+    }
+
+    @Test
+    void secondWriterFailsFast() throws IOException {
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            log.append(bytes("one"));
+            assertThrows(IOException.class, () -> new OutboxLog(directory, SEGMENT_SIZE, false));
+        }
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            assertEquals(Arrays.asList("one"), payloads(log.read(log.getCommittedOffset(), 10)));
+        }
+    }
+
+    @Test
+    void oversizedRecordIsRejected() throws IOException {
+        try (OutboxLog log = new OutboxLog(directory, SEGMENT_SIZE, false)) {
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[SEGMENT_SIZE]));
+            assertEquals(0, log.getPendingBytes());
+        }
+    }
+
+    private Path onlySegment() throws IOException {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*.log")) {
+            return segments.iterator().next();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*.log")) {
+            long count = 0;
+            for (Path ignored : segments) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from)) {
+            for (Path file : files) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> payloads(List<OutboxLog.Record> records) {
+        List<String> payloads = new ArrayList<>(records.size());
+        for (OutboxLog.Record record : records) {
+            payloads.add(new String(record.getPayload(), StandardCharsets.UTF_8));
+        }
+        return payloads;
+    }
+}
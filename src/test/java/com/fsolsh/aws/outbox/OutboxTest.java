@@ -0,0 +1,121 @@
+package com.fsolsh.aws.outbox;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void batchIsDeliveredConcurrentlyAndCommitted() throws Exception {
+        Set<String> delivered = ConcurrentHashMap.newKeySet();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        OutboxLog journal = new OutboxLog(directory, SEGMENT_SIZE, false);
+        try (Outbox outbox = new Outbox("test", journal, message -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            delivered.add(message.getRecipient());
+        }, 10, 4, 3)) {
+            for (int i = 0; i < 40; i++) {
+                outbox.append(OutboxMessage.sms("+100" + i, "hello"));
+            }
+            awaitDrained(outbox);
+
+            assertEquals(40, delivered.size());
+            assertTrue(maxInFlight.get() > 1, "max in flight " + maxInFlight.get());
+            assertTrue(maxInFlight.get() <= 4, "max in flight " + maxInFlight.get());
+            assertEquals(journal.getEndOffset(), journal.getCommittedOffset());
+        }
+    }
+
+    @Test
+    void rejectedMessageIsDeadLetteredAndSkipped() throws Exception {
+        Set<String> delivered = ConcurrentHashMap.newKeySet();
+        OutboxLog journal = new OutboxLog(directory, SEGMENT_SIZE, false);
+        try (Outbox outbox = new Outbox("test", journal, message -> {
+            if (message.getRecipient().equals("+1002")) {
+                throw new IllegalArgumentException("invalid number");
+            }
+            delivered.add(message.getRecipient());
+        }, 10, 2, 3)) {
+            for (int i = 0; i < 5; i++) {
+                outbox.append(OutboxMessage.sms("+100" + i, "hello"));
+            }
+            awaitDrained(outbox);
+
+            assertEquals(4, delivered.size());
+            List<String> deadLetters = Files.readAllLines(directory.resolve("dead-letter.jsonl"), StandardCharsets.UTF_8);
+            assertEquals(1, deadLetters.size());
+            assertTrue(deadLetters.get(0).contains("+1002"));
+            assertTrue(deadLetters.get(0).contains("invalid number"));
+        }
+    }
+
+    @Test
+    void corruptRecordIsDeadLetteredAndItsSegmentSkipped() throws Exception {
+        Set<String> delivered = ConcurrentHashMap.newKeySet();
+        OutboxLog journal = new OutboxLog(directory, SEGMENT_SIZE, false);
+        journal.append(JSON.toJSONBytes(OutboxMessage.sms("+1000", "hello")));
+        long corrupt = journal.append(JSON.toJSONBytes(OutboxMessage.sms("+1001", "hello")));
+        journal.append(JSON.toJSONBytes(OutboxMessage.sms("+1002", "hello")));
+        // a payload byte flipped under the running log, the segment is the first and only one
+        try (FileChannel segment = FileChannel.open(directory.resolve(String.format("%020d.log", 0)), StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.wrap(new byte[]{'#'}), corrupt + 8);
+        }
+
+        try (Outbox outbox = new Outbox("test", journal, message -> delivered.add(message.getRecipient()), 10, 2, 3)) {
+            awaitDrained(outbox);
+            outbox.append(OutboxMessage.sms("+1003", "hello"));
+            awaitDrained(outbox);
+
+            assertEquals(new HashSet<>(Arrays.asList("+1000", "+1003")), delivered);
+            List<String> deadLetters = Files.readAllLines(directory.resolve("dead-letter.jsonl"), StandardCharsets.UTF_8);
+            assertEquals(1, deadLetters.size());
+            assertTrue(deadLetters.get(0).contains("\"offset\":" + corrupt));
+        }
+    }
+
+    @Test
+    void appendAfterCloseIsRejected() throws IOException {
+        Outbox outbox = new Outbox("test", new OutboxLog(directory, SEGMENT_SIZE, false), message -> {
+        }, 10, 1, 3);
+        outbox.close();
+
+        assertThrows(IllegalStateException.class, () -> outbox.append(OutboxMessage.sms("+1000", "hello")));
+    }
+
+    private static void awaitDrained(Outbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (outbox.getPendingBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.getPendingBytes());
+    }
+}
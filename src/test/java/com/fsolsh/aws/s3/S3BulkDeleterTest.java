@@ -0,0 +1,95 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3BulkDeleterTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void keysArePackedIntoBatchesOfAThousand() {
+        Endpoint s3 = new Endpoint();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            keys.add("key-" + i);
+        }
+
+        S3DeleteResult result = new S3BulkDeleter(s3, executor, 2).delete("bucket", keys.iterator());
+
+        assertEquals(2500, result.getDeleted());
+        assertEquals(3, s3.calls.get());
+    }
+
+    @Test
+    void failedKeysAreReportedAndNotPassedToTheListener() {
+        Endpoint s3 = new Endpoint();
+        s3.failing = Collections.singleton("b");
+        Set<String> notified = ConcurrentHashMap.newKeySet();
+
+        S3DeleteResult result = new S3BulkDeleter(s3, executor, 2, (bucketName, objectKey) -> notified.add(objectKey))
+                .delete("bucket", Arrays.asList("a", "b", "c").iterator());
+
+        assertEquals(2, result.getDeleted());
+        assertEquals("b", result.getErrors().get(0).key());
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), notified);
+    }
+
+    @Test
+    void failingListenerDoesNotHideTheOtherKeys() {
+        Endpoint s3 = new Endpoint();
+        Set<String> notified = ConcurrentHashMap.newKeySet();
+
+        S3DeleteResult result = new S3BulkDeleter(s3, executor, 2, (bucketName, objectKey) -> {
+            if (objectKey.equals("a")) {
+                throw new IllegalStateException("listener broke");
+            }
+            notified.add(objectKey);
+        }).delete("bucket", Arrays.asList("a", "b", "c").iterator());
+
+        assertEquals(3, result.getDeleted());
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), notified);
+    }
+
+    /**
+     * deletes everything except the failing keys
+     */
+    private static class Endpoint extends StubS3Client {
+
+        final AtomicInteger calls = new AtomicInteger();
+        volatile Set<String> failing = Collections.emptySet();
+
+        @Override
+        public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+            calls.incrementAndGet();
+            List<S3Error> errors = new ArrayList<>();
+            request.delete().objects().forEach(object -> {
+                if (failing.contains(object.key())) {
+                    errors.add(S3Error.builder().key(object.key()).code("AccessDenied").build());
+                }
+            });
+            return ok(DeleteObjectsResponse.builder().errors(errors));
+        }
+    }
+}
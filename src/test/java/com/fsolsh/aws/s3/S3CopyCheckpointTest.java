@@ -0,0 +1,113 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3CopyCheckpointTest {
+
+    private static final String JOB = "copy\tsource/a/\ttarget/b/";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sameCopyResumesWithItsFinishedKeys() throws IOException {
+        Path file = directory.resolve("copy.checkpoint");
+        S3CopyCheckpoint first = new S3CopyCheckpoint(file, JOB);
+        first.done("a/1");
+        first.done("a/2");
+        first.close(false);
+
+        S3CopyCheckpoint second = new S3CopyCheckpoint(file, JOB);
+        assertTrue(second.contains("a/1"));
+        assertTrue(second.contains("a/2"));
+        assertFalse(second.contains("a/3"));
+        second.done("a/3");
+        second.close(false);
+
+        S3CopyCheckpoint third = new S3CopyCheckpoint(file, JOB);
+        assertTrue(third.contains("a/3"));
+        third.close(false);
+    }
+
+    @Test
+    void checkpointOfAnotherCopyIsDiscarded() throws IOException {
+        Path file = directory.resolve("copy.checkpoint");
+        S3CopyCheckpoint other = new S3CopyCheckpoint(file, "copy\tsource/x/\ttarget/y/");
+        other.done("a/1");
+        other.close(false);
+
+        S3CopyCheckpoint checkpoint = new S3CopyCheckpoint(file, JOB);
+        assertFalse(checkpoint.contains("a/1"));
+        checkpoint.close(false);
+        assertEquals(JOB, Files.readAllLines(file, StandardCharsets.UTF_8).get(0));
+    }
+
+    @Test
+    void tornLastLineIsNotTakenForAKey() throws IOException {
+        Path file = directory.resolve("copy.checkpoint");
+        S3CopyCheckpoint crashed = new S3CopyCheckpoint(file, JOB);
+        crashed.done("a/1");
+        crashed.close(false);
+        // the crash cut "a/10\t" short
+        Files.write(file, "a/1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        S3CopyCheckpoint resumed = new S3CopyCheckpoint(file, JOB);
+        resumed.done("a/2");
+        resumed.close(false);
+
+        S3CopyCheckpoint checkpoint = new S3CopyCheckpoint(file, JOB);
+        assertTrue(checkpoint.contains("a/1"));
+        assertTrue(checkpoint.contains("a/2"));
+        assertFalse(checkpoint.contains("a/1a/2"));
+        checkpoint.close(false);
+    }
+
+    @Test
+    void finishedCopyRemovesItsCheckpoint() throws IOException {
+        Path file = directory.resolve("nested/copy.checkpoint");
+        S3CopyCheckpoint checkpoint = new S3CopyCheckpoint(file, JOB);
+        checkpoint.done("a/1");
+        checkpoint.close(true);
+
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void noFileKeepsNothing() throws IOException {
+        S3CopyCheckpoint checkpoint = new S3CopyCheckpoint(null, JOB);
+        checkpoint.done("a/1");
+
+        assertFalse(checkpoint.contains("a/1"));
+        checkpoint.close(true);
+    }
+
+    @Test
+    void targetInsideTheSourcePrefixIsRejectedEvenWithAKeyMapper() {
+        S3BulkCopier copier = new S3BulkCopier(new StubS3Client(), null, null, null, 1024, 1, 1);
+        S3CopyOptions options = new S3CopyOptions();
+        options.setKeyMapper(key -> "renamed-" + key);
+
+        assertThrows(IllegalArgumentException.class, () -> copier.copy("bucket", "a/", "bucket", "a/b/", options));
+        assertThrows(IllegalArgumentException.class, () -> copier.move("bucket", "a/", "bucket", "a/b/", options));
+        // renamed copies land under the listed prefix all the same
+        assertThrows(IllegalArgumentException.class, () -> copier.copy("bucket", "a/", "bucket", "a/", options));
+        assertThrows(IllegalArgumentException.class, () -> copier.move("bucket", "a/", "bucket", "a/", options));
+    }
+
+    @Test
+    void plainCopyOntoItselfIsRejected() {
+        S3BulkCopier copier = new S3BulkCopier(new StubS3Client(), null, null, null, 1024, 1, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> copier.copy("bucket", "a/", "bucket", "a/", new S3CopyOptions()));
+        assertThrows(IllegalArgumentException.class, () -> copier.move("bucket", "a/", "bucket", "a/", new S3CopyOptions()));
+    }
+}
@@ -0,0 +1,154 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3DedupIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesSurviveAReopen() throws IOException {
+        Path file = directory.resolve("dedup.index");
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            index.put("sha-a", "bucket", "a", 3, "\"etag-a\"");
+            index.put("sha-b", "bucket", "dir/b c", 5, "\"etag-b\"");
+        }
+
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            assertEquals(2, index.size());
+            S3DedupIndex.Entry entry = index.get("sha-b");
+            assertTrue(entry.isAt("bucket", "dir/b c"));
+            assertEquals(5, entry.getSize());
+            assertEquals("\"etag-b\"", entry.getETag());
+        }
+    }
+
+    @Test
+    void changesAreReplayedFromTheLogWithoutClose() throws IOException {
+        Path file = directory.resolve("dedup.index");
+        S3DedupIndex crashed = new S3DedupIndex(10, file);
+        crashed.put("sha-a", "bucket", "a", 3, "\"etag-a\"");
+        crashed.put("sha-b", "bucket", "b", 3, "\"etag-b\"");
+        crashed.remove("sha-a");
+
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            assertNull(index.get("sha-a"));
+            assertNotNull(index.get("sha-b"));
+        }
+    }
+
+    @Test
+    void fileIsCompactedWhileTheIndexStaysOpen() throws IOException {
+        Path file = directory.resolve("dedup.index");
+        S3DedupIndex neverClosed = new S3DedupIndex(10, file);
+        for (int i = 0; i < 5000; i++) {
+            neverClosed.put("sha-" + i, "bucket", "key-" + i, 1, "\"" + i + "\"");
+        }
+
+        assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).size() <= 1025);
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            assertEquals(10, index.size());
+            assertNotNull(index.get("sha-4999"));
+        }
+    }
+
+    @Test
+    void historyIsDroppedOnOpen() throws IOException {
+        Path file = directory.resolve("dedup.index");
+        List<String> lines = Arrays.asList(
+                "sha-a\t3\t\"etag-a\"\tbucket\ta",
+                "sha-a\t-",
+                "sha-b\t4\t\"etag-b\"\tbucket\tb");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            assertEquals(Arrays.asList("sha-b\t4\t\"etag-b\"\tbucket\tb"), Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void tornAndOldFormatLinesAreIgnored() throws IOException {
+        Path file = directory.resolve("dedup.index");
+        List<String> lines = Arrays.asList(
+                "sha-old\t3\tbucket\told-format",
+                "sha-a\t3\t\"etag-a\"\tbucket\ta",
+                "sha-torn\tx3\t\"etag\"\tbucket\ttorn",
+                "sha-b\t4\t\"etag-b\"\tbuck");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            assertEquals(1, index.size());
+            assertNotNull(index.get("sha-a"));
+        }
+    }
+
+    @Test
+    void deletedObjectLosesItsEntry() throws IOException {
+        Path file = directory.resolve("dedup.index");
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            index.put("sha-a", "bucket", "a", 3, "\"etag-a\"");
+            index.removeObject("bucket", "a");
+            index.removeObject("bucket", "never-indexed");
+            assertNull(index.get("sha-a"));
+        }
+        try (S3DedupIndex index = new S3DedupIndex(10, file)) {
+            assertEquals(0, index.size());
+        }
+    }
+
+    @Test
+    void newContentAtAnObjectReplacesItsOldEntry() throws IOException {
+        try (S3DedupIndex index = new S3DedupIndex(10, null)) {
+            index.put("sha-old", "bucket", "a", 3, "\"etag-1\"");
+            index.put("sha-new", "bucket", "a", 3, "\"etag-2\"");
+
+            assertNull(index.get("sha-old"));
+            assertEquals("\"etag-2\"", index.get("sha-new").getETag());
+
+            index.removeObject("bucket", "a");
+            assertEquals(0, index.size());
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        try (S3DedupIndex index = new S3DedupIndex(2, null)) {
+            index.put("sha-a", "bucket", "a", 1, "\"a\"");
+            index.put("sha-b", "bucket", "b", 1, "\"b\"");
+            index.get("sha-a");
+            index.put("sha-c", "bucket", "c", 1, "\"c\"");
+
+            assertEquals(2, index.size());
+            assertNull(index.get("sha-b"));
+            assertNotNull(index.get("sha-a"));
+            // the evicted entry no longer answers for its object either
+            index.removeObject("bucket", "b");
+            assertEquals(2, index.size());
+            index.removeObject("bucket", "c");
+            assertNull(index.get("sha-c"));
+        }
+    }
+
+    @Test
+    void unusableEntriesAreNotIndexed() throws IOException {
+        try (S3DedupIndex index = new S3DedupIndex(10, null)) {
+            index.put("sha-a", "bucket", "line\nbreak", 1, "\"a\"");
+            index.put("sha-b", "bucket", "b", 1, null);
+            index.put("sha-c", "bucket", "c", 1, "");
+            index.put("sha-d", "bucket", "d", 1, "tab\tetag");
+
+            assertEquals(0, index.size());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3DedupUploaderTest {
+
+    private static final byte[] CONTENT = "same content".getBytes(StandardCharsets.UTF_8);
+
+    private final Bucket s3 = new Bucket();
+    private S3DedupIndex index;
+    private S3DedupUploader uploader;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        index = new S3DedupIndex(100, null);
+        uploader = new S3DedupUploader(s3, null, index, false);
+    }
+
+    @Test
+    void knownContentIsCopiedFromTheIndexedObject() {
+        assertTrue(uploader.upload(put("a"), CONTENT));
+        assertTrue(uploader.upload(put("b"), CONTENT));
+
+        assertEquals(1, s3.puts.get());
+        assertEquals(1, s3.copyRequests.size());
+        CopyObjectRequest copy = s3.copyRequests.get(0);
+        assertEquals("bucket/a", copy.copySource());
+        assertEquals(s3.objects.get("a").eTag, copy.copySourceIfMatch());
+        assertNotNull(s3.objects.get("b").metadata.get(S3DedupUploader.SHA256_METADATA));
+        assertEquals(1, uploader.getCopied());
+        assertEquals(CONTENT.length, uploader.getBytesSaved());
+    }
+
+    @Test
+    void overwrittenSourceFallsBackToAnUpload() {
+        assertTrue(uploader.upload(put("a"), CONTENT));
+        // a replaced behind the index's back
+        s3.store("a", "other content", Collections.emptyMap());
+
+        assertTrue(uploader.upload(put("b"), CONTENT));
+
+        assertEquals(1, s3.copyRequests.size());
+        assertFalse(s3.objects.get("b").copied);
+        assertEquals(2, s3.puts.get());
+        assertEquals(0, uploader.getCopied());
+        assertTrue(index.get(s3.objects.get("b").metadata.get(S3DedupUploader.SHA256_METADATA)).isAt("bucket", "b"));
+    }
+
+    @Test
+    void unchangedObjectIsSkippedOnlyAfterHeadConfirmsIt() {
+        assertTrue(uploader.upload(put("a"), CONTENT));
+        assertTrue(uploader.upload(put("a"), CONTENT));
+
+        assertEquals(1, s3.puts.get());
+        assertEquals(1, s3.heads.get());
+        assertEquals(1, uploader.getSkipped());
+
+        s3.store("a", "other content", Collections.emptyMap());
+        assertTrue(uploader.upload(put("a"), CONTENT));
+
+        assertEquals(2, s3.puts.get());
+        assertEquals(1, uploader.getSkipped());
+    }
+
+    @Test
+    void aclOrMetadataChangeRewritesTheObjectInPlace() {
+        assertTrue(uploader.upload(put("a"), CONTENT));
+
+        assertTrue(uploader.upload(put("a").toBuilder().acl(ObjectCannedACL.PUBLIC_READ).build(), CONTENT));
+        assertTrue(uploader.upload(put("a").toBuilder().metadata(Collections.singletonMap("owner", "x")).build(), CONTENT));
+
+        assertEquals(1, s3.puts.get());
+        assertEquals(2, s3.copyRequests.size());
+        assertEquals(ObjectCannedACL.PUBLIC_READ, s3.copyRequests.get(0).acl());
+        assertEquals("bucket/a", s3.copyRequests.get(1).copySource());
+        assertEquals("x", s3.objects.get("a").metadata.get("owner"));
+        assertEquals(0, uploader.getSkipped());
+    }
+
+    @Test
+    void deletedTargetIsUploadedAgain() {
+        assertTrue(uploader.upload(put("a"), CONTENT));
+        s3.objects.remove("a");
+
+        assertTrue(uploader.upload(put("a"), CONTENT));
+
+        assertEquals(2, s3.puts.get());
+        assertTrue(s3.objects.containsKey("a"));
+    }
+
+    private static PutObjectRequest put(String objectKey) {
+        return PutObjectRequest.builder().bucket("bucket").key(objectKey).build();
+    }
+
+    /**
+     * one bucket held in memory, etags change on every write the way s3's do
+     */
+    private static class Bucket extends StubS3Client {
+
+        final Map<String, Stored> objects = new HashMap<>();
+        final List<CopyObjectRequest> copyRequests = new ArrayList<>();
+        final AtomicInteger puts = new AtomicInteger();
+        final AtomicInteger heads = new AtomicInteger();
+        private final AtomicInteger versions = new AtomicInteger();
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            puts.incrementAndGet();
+            Stored stored = store(request.key(), "uploaded", request.metadata());
+            return ok(PutObjectResponse.builder().eTag(stored.eTag));
+        }
+
+        @Override
+        public CopyObjectResponse copyObject(CopyObjectRequest request) {
+            copyRequests.add(request);
+            Stored source = objects.get(request.copySource().substring("bucket/".length()));
+            if (source == null) {
+                throw error(404);
+            }
+            if (!source.eTag.equals(request.copySourceIfMatch())) {
+                throw error(412);
+            }
+            Stored stored = store(request.destinationKey(), "copied", request.metadata());
+            stored.copied = true;
+            return ok(CopyObjectResponse.builder().copyObjectResult(CopyObjectResult.builder().eTag(stored.eTag).build()));
+        }
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest request) {
+            heads.incrementAndGet();
+            Stored stored = objects.get(request.key());
+            if (stored == null) {
+                throw error(404);
+            }
+            return ok(HeadObjectResponse.builder().eTag(stored.eTag).metadata(stored.metadata));
+        }
+
+        Stored store(String objectKey, String how, Map<String, String> metadata) {
+            Stored stored = new Stored("\"" + how + "-" + versions.incrementAndGet() + "\"", new HashMap<>(metadata));
+            objects.put(objectKey, stored);
+            return stored;
+        }
+    }
+
+    private static class Stored {
+
+        final String eTag;
+        final Map<String, String> metadata;
+        boolean copied;
+
+        Stored(String eTag, Map<String, String> metadata) {
+            this.eTag = eTag;
+            this.metadata = metadata;
+        }
+    }
+}
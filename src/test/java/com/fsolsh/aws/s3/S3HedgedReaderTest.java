@@ -0,0 +1,128 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3HedgedReaderTest {
+
+    private static final GetObjectRequest REQUEST = GetObjectRequest.builder().bucket("bucket").key("a").build();
+
+    @Test
+    void slowGetIsOvertakenByItsHedge() throws Exception {
+        Endpoint s3 = new Endpoint();
+        try (S3HedgedReader reader = new S3HedgedReader(s3, true, 0.95, Duration.ofMillis(20), 4)) {
+            warmUp(reader);
+            s3.stallNext();
+
+            long start = System.nanoTime();
+            try (ResponseInputStream<GetObjectResponse> in = reader.getObject(REQUEST)) {
+                long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue(waitedMillis < 1000, "waited " + waitedMillis + " ms");
+                assertEquals("\"hedge\"", in.response().eTag());
+            }
+            assertEquals(1, reader.getHedged());
+            assertEquals(1, reader.getHedgeWins());
+
+            // the stalled GET answers late and is thrown away
+            s3.release.countDown();
+            assertTrue(s3.aborted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void fastGetIsNotHedged() throws Exception {
+        Endpoint s3 = new Endpoint();
+        try (S3HedgedReader reader = new S3HedgedReader(s3, true, 0.95, Duration.ofMillis(200), 4)) {
+            warmUp(reader);
+            int before = s3.gets.get();
+
+            reader.getObject(REQUEST).close();
+
+            assertEquals(before + 1, s3.gets.get());
+            assertEquals(0, reader.getHedged());
+        }
+    }
+
+    @Test
+    void failureIsRethrownWhenEveryGetFails() throws Exception {
+        Endpoint s3 = new Endpoint();
+        try (S3HedgedReader reader = new S3HedgedReader(s3, true, 0.95, Duration.ofMillis(20), 4)) {
+            warmUp(reader);
+            s3.failing = true;
+
+            S3Exception e = assertThrows(S3Exception.class, () -> reader.getObject(REQUEST));
+            assertEquals(503, e.statusCode());
+        }
+    }
+
+    @Test
+    void disabledReaderGetsOnTheCallersThread() throws IOException {
+        Endpoint s3 = new Endpoint();
+        S3HedgedReader reader = new S3HedgedReader(s3);
+
+        reader.getObject(REQUEST).close();
+
+        assertEquals(Thread.currentThread().getName(), s3.lastThread);
+        assertNull(reader.getDelay());
+    }
+
+    private static void warmUp(S3HedgedReader reader) throws IOException {
+        for (int i = 0; i < 64; i++) {
+            reader.getObject(REQUEST).close();
+        }
+        assertNotNull(reader.getDelay());
+    }
+
+    /**
+     * answers at once, or holds the next GET until released
+     */
+    private static class Endpoint extends StubS3Client {
+
+        final AtomicInteger gets = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        volatile boolean stallNext;
+        volatile boolean failing;
+        volatile String lastThread;
+
+        void stallNext() {
+            stallNext = true;
+        }
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+            gets.incrementAndGet();
+            lastThread = Thread.currentThread().getName();
+            if (failing) {
+                throw error(503);
+            }
+            String eTag = "\"fast\"";
+            if (stallNext) {
+                stallNext = false;
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                eTag = "\"stalled\"";
+            } else if (gets.get() > 64) {
+                eTag = "\"hedge\"";
+            }
+            GetObjectResponse response = ok(GetObjectResponse.builder().eTag(eTag).contentLength(1L));
+            return new ResponseInputStream<>(response, AbortableInputStream.create(new ByteArrayInputStream(new byte[1]), aborted::countDown));
+        }
+    }
+}
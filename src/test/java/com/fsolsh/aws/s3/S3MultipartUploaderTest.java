@@ -0,0 +1,132 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3MultipartUploaderTest {
+
+    private static final int PART_SIZE = 1024;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final List<Integer> uploadedParts = new CopyOnWriteArrayList<>();
+    private final List<String> aborted = new CopyOnWriteArrayList<>();
+    private final List<CompletedMultipartUpload> completed = new CopyOnWriteArrayList<>();
+    private volatile int failingPart;
+
+    private final StubS3Client s3 = new StubS3Client() {
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            return ok(PutObjectResponse.builder().eTag("\"single\""));
+        }
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            return ok(CreateMultipartUploadResponse.builder().uploadId("upload-1"));
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            if (request.partNumber() == failingPart) {
+                throw error(400);
+            }
+            uploadedParts.add(request.partNumber());
+            return ok(UploadPartResponse.builder().eTag("\"part-" + request.partNumber() + "\""));
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            completed.add(request.multipartUpload());
+            return ok(CompleteMultipartUploadResponse.builder().eTag("\"multi-3\""));
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            aborted.add(request.uploadId());
+            return ok(AbortMultipartUploadResponse.builder());
+        }
+    };
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void smallInputIsOnePut() throws IOException {
+        S3MultipartUploader uploader = new S3MultipartUploader(s3, executor, PART_SIZE, 2, 1);
+
+        assertEquals("\"single\"", uploader.put(putRequest(), new ByteArrayInputStream(new byte[PART_SIZE - 1])));
+        assertTrue(uploadedParts.isEmpty());
+    }
+
+    @Test
+    void partsAreCompletedInOrder() throws IOException {
+        S3MultipartUploader uploader = new S3MultipartUploader(s3, executor, PART_SIZE, 2, 1);
+
+        assertEquals("\"multi-3\"", uploader.put(putRequest(), new ByteArrayInputStream(new byte[PART_SIZE * 2 + 10])));
+        assertEquals(1, completed.size());
+        List<CompletedPart> parts = completed.get(0).parts();
+        assertEquals(3, parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            assertEquals(i + 1, parts.get(i).partNumber());
+            assertEquals("\"part-" + (i + 1) + "\"", parts.get(i).eTag());
+        }
+        assertTrue(aborted.isEmpty());
+    }
+
+    @Test
+    void oneBufferIsReusedForEveryPart() throws IOException {
+        S3MultipartUploader uploader = new S3MultipartUploader(s3, executor, PART_SIZE, 1, 1);
+
+        assertNotNull(uploader.put(putRequest(), new ByteArrayInputStream(new byte[PART_SIZE * 5])));
+        assertEquals(5, completed.get(0).parts().size());
+    }
+
+    @Test
+    void failedStreamUploadIsAborted() {
+        failingPart = 2;
+        S3MultipartUploader uploader = new S3MultipartUploader(s3, executor, PART_SIZE, 2, 1);
+
+        S3Exception e = assertThrows(S3Exception.class, () -> uploader.put(putRequest(), new ByteArrayInputStream(new byte[PART_SIZE * 4])));
+        assertEquals(400, e.statusCode());
+        assertEquals(1, aborted.size());
+        assertEquals("upload-1", aborted.get(0));
+        assertTrue(completed.isEmpty());
+    }
+
+    @Test
+    void failedBufferUploadIsAborted() {
+        failingPart = 3;
+        S3MultipartUploader uploader = new S3MultipartUploader(s3, executor, PART_SIZE, 2, 1);
+
+        assertThrows(S3Exception.class, () -> uploader.put(putRequest(), ByteBuffer.allocate(PART_SIZE * 3)));
+        assertEquals(1, aborted.size());
+        assertTrue(completed.isEmpty());
+    }
+
+    @Test
+    void failedUploadLeavesTheBuffersUsable() throws IOException {
+        failingPart = 1;
+        S3MultipartUploader uploader = new S3MultipartUploader(s3, executor, PART_SIZE, 1, 1);
+        assertThrows(S3Exception.class, () -> uploader.put(putRequest(), new ByteArrayInputStream(new byte[PART_SIZE * 3])));
+
+        failingPart = 0;
+        assertEquals("\"multi-3\"", uploader.put(putRequest(), new ByteArrayInputStream(new byte[PART_SIZE * 3])));
+    }
+
+    private static PutObjectRequest putRequest() {
+        return PutObjectRequest.builder().bucket("bucket").key("key").build();
+    }
+}
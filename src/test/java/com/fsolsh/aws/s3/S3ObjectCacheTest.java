@@ -0,0 +1,210 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3ObjectCacheTest {
+
+    private static final Duration TTL = Duration.ofMinutes(5);
+
+    @TempDir
+    Path directory;
+
+    private final Bucket s3 = new Bucket();
+
+    @Test
+    void secondGetIsServedFromMemory() throws IOException {
+        s3.objects.put("a", "aaaa");
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 100, 10, directory, 100, TTL)) {
+            assertEquals("aaaa", text(cache.get("bucket", "a")));
+            assertEquals("aaaa", text(cache.get("bucket", "a")));
+
+            assertEquals(1, s3.gets.get());
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getMisses());
+            assertEquals(4, cache.getMemoryBytes());
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedObjectIsEvicted() throws IOException {
+        s3.objects.put("a", "aaaa");
+        s3.objects.put("b", "bbbb");
+        s3.objects.put("c", "cccc");
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 10, 10, directory, 100, TTL)) {
+            cache.get("bucket", "a");
+            cache.get("bucket", "b");
+            // touching a makes b the eldest
+            cache.get("bucket", "a");
+            cache.get("bucket", "c");
+
+            assertEquals(1, cache.getEvictions());
+            assertEquals(8, cache.getMemoryBytes());
+            assertEquals(3, s3.gets.get());
+
+            cache.get("bucket", "a");
+            assertEquals(3, s3.gets.get());
+            cache.get("bucket", "b");
+            assertEquals(4, s3.gets.get());
+        }
+    }
+
+    @Test
+    void largeObjectIsMappedFromDisk() throws IOException {
+        s3.objects.put("large", "0123456789");
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 100, 4, directory, 100, TTL)) {
+            assertEquals("0123456789", text(cache.get("bucket", "large")));
+
+            assertEquals(0, cache.getMemoryBytes());
+            assertEquals(10, cache.getDiskBytes());
+            assertEquals(1, fileCount());
+
+            cache.invalidate("bucket", "large");
+            assertEquals(0, cache.getDiskBytes());
+            assertEquals(0, fileCount());
+        }
+    }
+
+    @Test
+    void invalidatedObjectIsFetchedAgain() throws IOException {
+        s3.objects.put("a", "old");
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 100, 10, directory, 100, TTL)) {
+            assertEquals("old", text(cache.get("bucket", "a")));
+
+            s3.objects.put("a", "new");
+            cache.invalidate("bucket", "a");
+
+            assertEquals("new", text(cache.get("bucket", "a")));
+            assertEquals(2, s3.gets.get());
+        }
+    }
+
+    @Test
+    void fetchInvalidatedWhileInFlightIsNotStored() throws Exception {
+        s3.objects.put("a", "old");
+        s3.entered = new CountDownLatch(1);
+        s3.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 100, 10, directory, 100, TTL)) {
+            Future<ByteBuffer> reading = executor.submit(() -> cache.get("bucket", "a"));
+            assertTrue(s3.entered.await(5, TimeUnit.SECONDS));
+
+            // a write lands while the old object is on the wire
+            s3.objects.put("a", "new");
+            cache.invalidate("bucket", "a");
+            s3.release.countDown();
+
+            assertEquals("old", text(reading.get(5, TimeUnit.SECONDS)));
+            assertEquals(0, cache.getMemoryBytes());
+            s3.entered = null;
+            assertEquals("new", text(cache.get("bucket", "a")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void expiredEntryIsRevalidatedWithItsETag() throws IOException {
+        s3.objects.put("a", "aaaa");
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 100, 10, directory, 100, Duration.ZERO)) {
+            ByteBuffer first = cache.get("bucket", "a");
+            ByteBuffer second = cache.get("bucket", "a");
+
+            assertEquals(2, s3.gets.get());
+            assertEquals(1, s3.notModified.get());
+            assertEquals(1, cache.getRevalidations());
+            assertEquals(text(first), text(second));
+        }
+    }
+
+    @Test
+    void deletedObjectIsDropped() throws IOException {
+        s3.objects.put("a", "aaaa");
+        try (S3ObjectCache cache = new S3ObjectCache(s3, 100, 10, directory, 100, Duration.ZERO)) {
+            cache.get("bucket", "a");
+            s3.objects.remove("a");
+
+            S3Exception e = assertThrows(S3Exception.class, () -> cache.get("bucket", "a"));
+            assertEquals(404, e.statusCode());
+            assertEquals(0, cache.getMemoryBytes());
+        }
+    }
+
+    private long fileCount() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.obj")) {
+            long count = 0;
+            for (Path ignored : files) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * answers GetObject from a map, the etag is the content in quotes, and If-None-Match with a 304
+     */
+    private static class Bucket extends StubS3Client {
+
+        final Map<String, String> objects = new ConcurrentHashMap<>();
+        final AtomicInteger gets = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        volatile CountDownLatch entered;
+        volatile CountDownLatch release;
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+            gets.incrementAndGet();
+            String content = objects.get(request.key());
+            if (content == null) {
+                throw error(404);
+            }
+            String eTag = "\"" + content + "\"";
+            if (eTag.equals(request.ifNoneMatch())) {
+                notModified.incrementAndGet();
+                throw error(304);
+            }
+            CountDownLatch enteredLatch = entered;
+            if (enteredLatch != null) {
+                enteredLatch.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            GetObjectResponse response = ok(GetObjectResponse.builder().eTag(eTag).contentLength((long) bytes.length));
+            return new ResponseInputStream<>(response, AbortableInputStream.create(new ByteArrayInputStream(bytes)));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3PresignedUrlCacheTest {
+
+    private final AtomicInteger signatures = new AtomicInteger();
+
+    @Test
+    void urlIsReusedUntilTheSafetyMargin() {
+        S3PresignedUrlCache cache = new S3PresignedUrlCache(10, Duration.ofSeconds(60));
+
+        URL first = cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+        URL second = cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+
+        assertSame(first, second);
+        assertEquals(1, signatures.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void urlInsideTheSafetyMarginIsSignedAgain() {
+        S3PresignedUrlCache cache = new S3PresignedUrlCache(10, Duration.ofSeconds(60));
+
+        // expires within the margin, so it is stale as soon as it is cached
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(30)));
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+
+        assertEquals(2, signatures.get());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void shortDurationsAreNotCached() {
+        S3PresignedUrlCache cache = new S3PresignedUrlCache(10, Duration.ofSeconds(60));
+
+        cache.get("bucket", "a", 60, signer("a", Duration.ofSeconds(60)));
+        cache.get("bucket", "a", 60, signer("a", Duration.ofSeconds(60)));
+
+        assertEquals(2, signatures.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void durationIsPartOfTheKey() {
+        S3PresignedUrlCache cache = new S3PresignedUrlCache(10, Duration.ofSeconds(60));
+
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+        cache.get("bucket", "a", 900, signer("a", Duration.ofSeconds(900)));
+
+        assertEquals(2, signatures.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedUrlIsEvicted() {
+        S3PresignedUrlCache cache = new S3PresignedUrlCache(2, Duration.ofSeconds(60));
+
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+        cache.get("bucket", "b", 600, signer("b", Duration.ofSeconds(600)));
+        // touching a makes b the eldest
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+        cache.get("bucket", "c", 600, signer("c", Duration.ofSeconds(600)));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, signatures.get());
+
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+        assertEquals(3, signatures.get());
+        cache.get("bucket", "b", 600, signer("b", Duration.ofSeconds(600)));
+        assertEquals(4, signatures.get());
+    }
+
+    @Test
+    void zeroSizeDisablesTheCache() {
+        S3PresignedUrlCache cache = new S3PresignedUrlCache(0, Duration.ofSeconds(60));
+
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+        cache.get("bucket", "a", 600, signer("a", Duration.ofSeconds(600)));
+
+        assertEquals(2, signatures.get());
+        assertEquals(0, cache.size());
+    }
+
+    private Supplier<PresignedGetObjectRequest> signer(String objectKey, Duration validFor) {
+        return () -> {
+            int signature = signatures.incrementAndGet();
+            SdkHttpFullRequest request = SdkHttpFullRequest.builder()
+                    .method(SdkHttpMethod.GET)
+                    .protocol("https")
+                    .host("bucket.s3.amazonaws.com")
+                    .encodedPath("/" + objectKey)
+                    .putRawQueryParameter("X-Amz-Signature", Integer.toString(signature))
+                    .build();
+            return PresignedGetObjectRequest.builder()
+                    .expiration(Instant.now().plus(validFor))
+                    .isBrowserExecutable(true)
+                    .signedHeaders(Collections.singletonMap("host", Collections.singletonList("bucket.s3.amazonaws.com")))
+                    .httpRequest(request)
+                    .build();
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package com.fsolsh.aws.s3;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3RangedDownloaderTest {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void rangesAreAssembledInPlace() throws Exception {
+        Endpoint s3 = new Endpoint();
+        Path target = directory.resolve("object");
+
+        long size = new S3RangedDownloader(s3, executor, 3, 3).download("bucket", "a", target);
+
+        assertEquals(CONTENT.length, size);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertEquals(7, s3.gets.get());
+    }
+
+    @Test
+    void objectReplacedMidDownloadFailsWithoutRetries() {
+        Endpoint s3 = new Endpoint();
+        s3.replaced = true;
+        Path target = directory.resolve("object");
+
+        S3Exception e = assertThrows(S3Exception.class, () -> new S3RangedDownloader(s3, executor, 100, 5).download("bucket", "a", target));
+
+        assertEquals(412, e.statusCode());
+        assertEquals(1, s3.gets.get());
+        assertFalse(Files.exists(target));
+    }
+
+    /**
+     * one object, ranged GETs honour If-Match against its etag
+     */
+    private static class Endpoint extends StubS3Client {
+
+        final AtomicInteger gets = new AtomicInteger();
+        volatile boolean replaced;
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest request) {
+            return ok(HeadObjectResponse.builder().eTag("\"v1\"").contentLength((long) CONTENT.length));
+        }
+
+        @Override
+        public <ReturnT> ReturnT getObject(GetObjectRequest request, ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+            gets.incrementAndGet();
+            if (replaced || !"\"v1\"".equals(request.ifMatch())) {
+                throw error(412);
+            }
+            String[] bounds = request.range().substring("bytes=".length()).split("-");
+            byte[] range = Arrays.copyOfRange(CONTENT, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+            GetObjectResponse response = ok(GetObjectResponse.builder().eTag("\"v1\"").contentLength((long) range.length));
+            try {
+                return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(range)));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
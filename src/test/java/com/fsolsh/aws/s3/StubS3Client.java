@@ -0,0 +1,33 @@
+package com.fsolsh.aws.s3;
+
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * an S3Client that answers nothing, tests override the calls they expect
+ */
+class StubS3Client implements S3Client {
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * a response as the sdk returns it, with a successful http status
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends SdkResponse> T ok(SdkResponse.Builder builder) {
+        return (T) builder.sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build()).build();
+    }
+
+    static S3Exception error(int statusCode) {
+        return (S3Exception) S3Exception.builder().statusCode(statusCode).message("status " + statusCode).build();
+    }
+}
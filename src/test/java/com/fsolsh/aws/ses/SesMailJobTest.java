@@ -0,0 +1,27 @@
+package com.fsolsh.aws.ses;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SesMailJobTest {
+
+    @Test
+    void missingDefaultTemplateDataIsEmptyData() {
+        SesMailJob job = SesMailJob.template("sender@example.com", "a@example.com", "welcome", null, null);
+
+        assertEquals("{}", job.getDefaultTemplateData());
+        assertEquals("{}", job.getTemplateData());
+        assertTrue(job.canShareBatchWith(SesMailJob.template("sender@example.com", "b@example.com", "welcome", "{\"name\":\"b\"}")));
+    }
+
+    @Test
+    void onlyTheSameTemplateAndDefaultsShareABatch() {
+        SesMailJob job = SesMailJob.template("sender@example.com", "a@example.com", "welcome", "{\"lang\":\"en\"}", null);
+
+        assertTrue(job.canShareBatchWith(SesMailJob.template("sender@example.com", "b@example.com", "welcome", "{\"lang\":\"en\"}", null)));
+        assertFalse(job.canShareBatchWith(SesMailJob.template("sender@example.com", "b@example.com", "welcome", null, null)));
+        assertFalse(job.canShareBatchWith(SesMailJob.template("other@example.com", "b@example.com", "welcome", "{\"lang\":\"en\"}", null)));
+        assertFalse(job.canShareBatchWith(SesMailJob.text("sender@example.com", "b@example.com", "subject", "body")));
+    }
+}
@@ -0,0 +1,71 @@
+package com.fsolsh.aws.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void oneSecondOfPermitsPassesAtOnce() {
+        TokenBucket bucket = new TokenBucket(10);
+
+        assertTrue(bucket.tryAcquire(10));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void tryAcquireTakesNothingWhenShort() {
+        TokenBucket bucket = new TokenBucket(10);
+
+        assertFalse(bucket.tryAcquire(11));
+        assertTrue(bucket.tryAcquire(10));
+    }
+
+    @Test
+    void acquireSleepsOffTheDebt() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(20);
+        bucket.acquire(20);
+
+        long start = System.nanoTime();
+        // 5 permits at 20 per second are 250 ms in debt
+        bucket.acquire(5);
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(waitedMillis >= 200, "waited " + waitedMillis + " ms");
+        assertTrue(waitedMillis < 2000, "waited " + waitedMillis + " ms");
+    }
+
+    @Test
+    void permitsRefillOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100);
+        assertTrue(bucket.tryAcquire(100));
+
+        Thread.sleep(100);
+
+        assertTrue(bucket.tryAcquire(5));
+    }
+
+    @Test
+    void lowerRateCapsTheStoredPermits() {
+        TokenBucket bucket = new TokenBucket(100);
+
+        bucket.setRate(10);
+
+        assertEquals(10, bucket.getRate());
+        assertFalse(bucket.tryAcquire(11));
+        assertTrue(bucket.tryAcquire(10));
+    }
+
+    @Test
+    void higherRateDoesNotAddABurst() {
+        TokenBucket bucket = new TokenBucket(10);
+        assertTrue(bucket.tryAcquire(10));
+
+        bucket.setRate(1000);
+
+        assertFalse(bucket.tryAcquire(500));
+    }
+}